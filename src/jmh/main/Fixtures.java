@@ -0,0 +1,142 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Builds the synthetic files, trees, and checksum lists used by the benchmarks.
+ * <br>
+ * Everything is generated from a fixed seed, so the same fixtures can be rebuilt on any machine and results compared between releases.
+ */
+public final class Fixtures
+{
+	public static final long SEED = 0x5EED_CAFEL;
+	
+	private Fixtures()
+	{}
+	
+	/**
+	 * Create a file of random content.
+	 * @param file The file to create.
+	 * @param size Size in bytes.
+	 * @return The file.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static Path createFile(Path file, long size) throws IOException
+	{
+		return createFile(file, size, new Random(SEED));
+	}
+	
+	private static Path createFile(Path file, long size, Random random) throws IOException
+	{
+		final byte[] block = new byte[(int) Math.min(size, Main.MB)];
+		try (final OutputStream output = Files.newOutputStream(file))
+		{
+			for (long written = 0; written < size; written += block.length)
+			{
+				random.nextBytes(block);
+				output.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		}
+		return file;
+	}
+	
+	/**
+	 * Create a directory tree of random files.
+	 * @param root The directory to create it in.
+	 * @param files Total number of files.
+	 * @param depth Number of directory levels below the root.
+	 * @param fanOut Number of subdirectories in each directory.
+	 * @param maxSize Largest file size in bytes, sizes are skewed towards small files like most real trees.
+	 * @return The root.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static Path createTree(Path root, int files, int depth, int fanOut, int maxSize) throws IOException
+	{
+		final Random random = new Random(SEED);
+		Files.createDirectories(root);
+		for (int i = 0; i < files; i++)
+		{
+			// Pick a directory by walking down a random number of levels
+			Path directory = root;
+			final int levels = random.nextInt(depth + 1);
+			for (int level = 0; level < levels; level++)
+				directory = directory.resolve("dir" + random.nextInt(fanOut));
+			Files.createDirectories(directory);
+			final double skew = random.nextDouble();
+			createFile(directory.resolve("file" + i + ".bin"), (long) (skew * skew * skew * maxSize), random);
+		}
+		return root;
+	}
+	
+	/**
+	 * Create a checksum list in the GNU coreutils format, the files it lists don't exist.
+	 * @param file The list to create.
+	 * @param lines Number of entries.
+	 * @param hashLength Length of each checksum in bytes.
+	 * @return The list.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static Path createManifest(Path file, int lines, int hashLength) throws IOException
+	{
+		final Random random = new Random(SEED);
+		final byte[] hash = new byte[hashLength];
+		try (final BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+		{
+			for (int i = 0; i < lines; i++)
+			{
+				random.nextBytes(hash);
+				writer.append(Main.bytesToHex(hash)).append("  ")
+						.append("dir").append(String.valueOf(random.nextInt(64))).append("/dir").append(String.valueOf(random.nextInt(64)))
+						.append("/file").append(String.valueOf(i)).append(".bin\n");
+			}
+		}
+		return file;
+	}
+	
+	/**
+	 * Delete a fixture and everything in it.
+	 * @param root The file or directory to delete.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static void delete(Path root) throws IOException
+	{
+		if (!Files.exists(root))
+			return;
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+			{
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+			{
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	// Rebuild the standard fixtures in a directory, for running the program itself against them
+	public static void main(String[] args) throws IOException
+	{
+		final Path root = Paths.get(args.length > 0 ? args[0] : "fixtures");
+		createFile(Files.createDirectories(root).resolve("large.bin"), Main.GB);
+		createTree(root.resolve("tree"), 10_000, 4, 8, Main.MB * 4);
+		createManifest(root.resolve("manifest.sha256"), 1_000_000, 32);
+		System.out.println("Fixtures created in: " + root.toAbsolutePath());
+	}
+}
@@ -0,0 +1,78 @@
+package main;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of formatting a single checksum line, the hex encoding, on its own or appended, and the path relativization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FormatBenchmark
+{
+	@Param({"16", "32", "64"})
+	public int hashLength;
+	
+	private final StringBuilder builder = new StringBuilder();
+	private byte[] hash;
+	private Path inputPath;
+	private FileChecksum checksum;
+	
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		hash = new byte[hashLength];
+		new Random(Fixtures.SEED).nextBytes(hash);
+		inputPath = Paths.get("/srv/archive/2023");
+		checksum = new FileChecksum(inputPath.resolve("projects/pathsum/src/main/Main.java"), hash, "SHA-256");
+	}
+	
+	@Benchmark
+	public String bytesToHex()
+	{
+		return Main.bytesToHex(hash);
+	}
+	
+	@Benchmark
+	public int appendHex()
+	{
+		builder.setLength(0);
+		Main.appendHex(builder, hash, 0, hash.length);
+		return builder.length();
+	}
+	
+	@Benchmark
+	public int addToBuilderRelative()
+	{
+		builder.setLength(0);
+		checksum.addToBuilder(builder, inputPath, false);
+		return builder.length();
+	}
+	
+	@Benchmark
+	public int addToBuilderAbsolute()
+	{
+		builder.setLength(0);
+		checksum.addToBuilder(builder, inputPath, true);
+		return builder.length();
+	}
+}
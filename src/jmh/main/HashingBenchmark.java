@@ -0,0 +1,161 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of hashing a single file, per algorithm, I/O strategy, and read buffer size.
+ * <br>
+ * The {@code bytes} counter is the actual hashing speed in bytes per second. The file is read once before measuring,
+ * so the results are for the page cache and not the disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HashingBenchmark
+{
+	// Algorithms given by AlgorithmCandidates on a standard JRE, more can be passed with -p algorithm=...
+	@Param({"MD5", "SHA-1", "SHA-224", "SHA-256", "SHA-384", "SHA-512", "SHA-512/256", "SHA3-256", "SHA3-512", "XXH64", "BLAKE3"})
+	public String algorithm;
+	@Param({"STREAM", "AHEAD", "MMAP"})
+	public IOStrategy io;
+	@Param({"268435456"})// 256 MB
+	public long fileSize;
+	
+	private Path file;
+	private MessageDigest digest;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, NoSuchAlgorithmException
+	{
+		FastHashProvider.install();
+		file = Fixtures.createFile(Files.createTempFile("pathsum-bench", ".bin"), fileSize);
+		digest = MessageDigest.getInstance(algorithm);
+		// Warm the page cache
+		Main.getFileChecksum(file, digest, IOStrategy.STREAM, null);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(file);
+	}
+	
+	@Benchmark
+	public byte[] fileChecksum(Bytes bytes) throws IOException
+	{
+		bytes.bytes += fileSize;
+		return Main.getFileChecksum(file, digest, io, null);
+	}
+	
+	/**
+	 * Several digests fed from a single read, compare with the sum of their separate results.
+	 */
+	@State(Scope.Benchmark)
+	public static class MultiDigest
+	{
+		@Param({"MD5,SHA-256,SHA-512", "XXH64,SHA-256"})
+		public String algorithms;
+		
+		private Path file;
+		private MessageDigest[] digests;
+		
+		@Setup(Level.Trial)
+		public void setUp() throws IOException, NoSuchAlgorithmException
+		{
+			file = Fixtures.createFile(Files.createTempFile("pathsum-bench", ".bin"), Main.MB * 256L);
+			FastHashProvider.install();
+			final String[] names = algorithms.split(",");
+			digests = new MessageDigest[names.length];
+			for (int i = 0; i < names.length; i++)
+				digests[i] = MessageDigest.getInstance(names[i]);
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException
+		{
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Benchmark
+	public byte[][] multiDigest(MultiDigest state, Bytes bytes) throws IOException
+	{
+		bytes.bytes += Main.MB * 256L;
+		return Main.getFileChecksums(state.file, state.digests, IOStrategy.STREAM, null);
+	}
+	
+	/**
+	 * Read loop alone with different buffers, using the cheapest digest so the buffer's cost shows.
+	 */
+	@State(Scope.Benchmark)
+	public static class Buffers
+	{
+		@Param({"65536", "1048576", "8388608", "33554432"})
+		public int bufferSize;
+		@Param({"true", "false"})
+		public boolean direct;
+		
+		private Path file;
+		private ByteBuffer buffer;
+		private MessageDigest[] digests;
+		
+		@Setup(Level.Trial)
+		public void setUp() throws IOException, NoSuchAlgorithmException
+		{
+			file = Fixtures.createFile(Files.createTempFile("pathsum-bench", ".bin"), Main.MB * 256L);
+			buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+			digests = new MessageDigest[] {MessageDigest.getInstance("MD5")};
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException
+		{
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Benchmark
+	public byte[] readBuffer(Buffers state, Bytes bytes) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(state.file, StandardOpenOption.READ))
+		{
+			bytes.bytes += channel.size();
+			Main.readIntoDigest(channel, state.digests, state.buffer, null);
+			return state.digests[0].digest();
+		}
+	}
+	
+	// Reported as bytes per second
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Bytes
+	{
+		public long bytes;
+	}
+}
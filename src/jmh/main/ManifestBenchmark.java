@@ -0,0 +1,135 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse rate of checksum lists in both formats, and lookup rate in the binary format. The {@code entries} counter is entries per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ManifestBenchmark
+{
+	@Param({"1000000"})
+	public int lines;
+	@Param({"16", "32", "64"})
+	public int hashLength;
+	
+	private Path manifest, binaryManifest;
+	private BinaryManifest binary;
+	private String line;
+	// Every 1000th path, to look up
+	private final List<Path> samples = new ArrayList<>();
+	private int sample;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, NoSuchAlgorithmException
+	{
+		manifest = Fixtures.createManifest(Files.createTempFile("pathsum-bench", ".txt"), lines, hashLength);
+		try (final ManifestReader reader = new ManifestReader(manifest))
+		{
+			line = reader.next().getLine();
+		}
+		// Any algorithm with the same length will do
+		final MessageDigest digest = MessageDigest.getInstance(hashLength == 16 ? "MD5" : hashLength == 32 ? "SHA-256" : "SHA-512");
+		binaryManifest = Files.createTempFile("pathsum-bench", BinaryManifest.EXTENSION);
+		BinaryManifest.fromText(manifest, binaryManifest, digest, new ArrayList<>());
+		binary = BinaryManifest.open(binaryManifest);
+		try (final ManifestReader reader = new ManifestReader(manifest))
+		{
+			ManifestEntry entry;
+			for (int i = 0; (entry = reader.next()) != null; i++)
+				if (i % 1000 == 0)
+					samples.add(entry.getFile());
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(manifest);
+		Files.deleteIfExists(binaryManifest);
+	}
+	
+	@Benchmark
+	public int readManifest(Entries entries) throws IOException
+	{
+		int valid = 0;
+		try (final ManifestReader reader = new ManifestReader(manifest))
+		{
+			ManifestEntry entry;
+			while ((entry = reader.next()) != null)
+			{
+				if (entry.isValid())
+					valid++;
+				entries.entries++;
+			}
+		}
+		return valid;
+	}
+	
+	@Benchmark
+	public int readBinaryManifest(Entries entries) throws IOException
+	{
+		int valid = 0;
+		try (final ManifestSource source = binary.entries())
+		{
+			ManifestEntry entry;
+			while ((entry = source.next()) != null)
+			{
+				if (entry.isValid())
+					valid++;
+				entries.entries++;
+			}
+		}
+		return valid;
+	}
+	
+	@Benchmark
+	public ManifestEntry lookupBinary(Entries entries) throws IOException
+	{
+		entries.entries++;
+		sample = (sample + 1) % samples.size();
+		return binary.lookup(samples.get(sample));
+	}
+	
+	@Benchmark
+	public ManifestEntry parseLine(Entries entries)
+	{
+		entries.entries++;
+		return ManifestReader.parse(line, 1);
+	}
+	
+	// Reported as entries per second
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Entries
+	{
+		public long entries;
+	}
+}
@@ -9,6 +9,7 @@ public final class AlgorithmCandidates implements Iterable<String>
 	@Override
 	public Iterator<String> iterator()
 	{
+		FastHashProvider.install();
 		return Security.getAlgorithms("MessageDigest").iterator();
 	}
 
@@ -0,0 +1,477 @@
+package main;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A binary checksum list, memory-mapped so single entries can be looked up without reading the rest.
+ * <br>
+ * The entries are mapped in windows of whole blocks up to {@link Main#MMAP_WINDOW} each, so a list can be any size and a
+ * block is always read from a single window.
+ * <br>
+ * Layout, with big-endian numbers:
+ * <ul>
+ * <li>Header: magic {@code PSM1}, algorithm, root directory (both modified UTF-8), digest length (byte), entries per block (short).</li>
+ * <li>Entries in manifest order: shared path prefix length and suffix length (unsigned LEB128), suffix (UTF-8),
+ * tag (byte, 0 if untagged), raw checksum. The first entry of each block has no shared prefix.</li>
+ * <li>Tag table: count (byte), then the tagged algorithm names (modified UTF-8).</li>
+ * <li>Index: offset of each block (long).</li>
+ * <li>Footer: tag table offset, index offset, entry count (longs), block count (int), magic.</li>
+ * </ul>
+ */
+public final class BinaryManifest
+{
+	public static final int MAGIC = 0x50534D31;// "PSM1"
+	public static final String EXTENSION = ".psm";
+	public static final int BLOCK_ENTRIES = 64;// Entries scanned at most for a lookup after the index search
+	static final int FOOTER = Long.BYTES * 3 + Integer.BYTES * 2;
+	private static final int MAX_HEADER = Integer.BYTES + (Short.BYTES + 0xFFFF) * 2 + Byte.BYTES + Short.BYTES;
+
+	private final String algorithm, root;
+	private final int digestLength, blockEntries, blockCount, entriesOffset;
+	private final long count;
+	private final String[] tags;
+	// Offset of each block
+	private final LongBuffer index;
+	// Windows of whole blocks, the first also holding the header, with their offsets and first blocks
+	private final ByteBuffer[] windows;
+	private final long[] windowOffsets;
+	private final int[] windowBlocks;
+
+	private BinaryManifest(FileChannel channel) throws IOException
+	{
+		final long size = channel.size();
+		if (size < Integer.BYTES + FOOTER)
+			throw new IOException("Not a complete binary checksum list!");
+		final ByteBuffer footer = channel.map(MapMode.READ_ONLY, size - FOOTER, FOOTER);
+		final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(size - FOOTER, MAX_HEADER));
+		if (header.getInt() != MAGIC || footer.getInt(FOOTER - Integer.BYTES) != MAGIC)
+			throw new IOException("Not a complete binary checksum list!");
+		algorithm = readUTF(header);
+		root = readUTF(header);
+		digestLength = header.get() & 0xFF;
+		blockEntries = header.getShort() & 0xFFFF;
+		entriesOffset = header.position();
+		final long tagsOffset = footer.getLong(0), indexOffset = footer.getLong(Long.BYTES);
+		count = footer.getLong(Long.BYTES * 2);
+		blockCount = footer.getInt(Long.BYTES * 3);
+		if (tagsOffset < entriesOffset || indexOffset < tagsOffset || indexOffset + (long) blockCount * Long.BYTES != size - FOOTER
+				|| count < 0 || blockEntries == 0 && count > 0 || blockEntries > 0 && blockCount != (count + blockEntries - 1) / blockEntries)
+			throw new IOException("Corrupt binary checksum list, the footer doesn't match the file!");
+		if (size - FOOTER - tagsOffset > Integer.MAX_VALUE)
+			throw new IOException("Binary checksum list has too many blocks to map its index!");
+		// Tag table and index
+		final ByteBuffer tail = channel.map(MapMode.READ_ONLY, tagsOffset, size - FOOTER - tagsOffset);
+		tags = new String[tail.get() & 0xFF];
+		for (int i = 0; i < tags.length; i++)
+			tags[i] = readUTF(tail);
+		index = tail.position((int) (indexOffset - tagsOffset)).slice().asLongBuffer();
+		// Windows end before the block that would make them too large
+		final List<ByteBuffer> mapped = new ArrayList<>();
+		final List<Long> offsets = new ArrayList<>();
+		final List<Integer> blocks = new ArrayList<>();
+		long start = 0;
+		int first = 0;
+		for (int block = 0; block < blockCount; block++)
+		{
+			final long offset = index.get(block), end = block + 1 < blockCount ? index.get(block + 1) : tagsOffset;
+			if (offset < (block > 0 ? index.get(block - 1) : entriesOffset) || end < offset || end > tagsOffset)
+				throw new IOException("Corrupt binary checksum list, block #" + block + " is out of place!");
+			if (block > first && end - start > Main.MMAP_WINDOW)
+			{
+				mapped.add(mapWindow(channel, start, offset));
+				offsets.add(start);
+				blocks.add(first);
+				start = offset;
+				first = block;
+			}
+		}
+		mapped.add(mapWindow(channel, start, tagsOffset));
+		offsets.add(start);
+		blocks.add(first);
+		windows = mapped.toArray(new ByteBuffer[0]);
+		windowOffsets = new long[offsets.size()];
+		windowBlocks = new int[blocks.size()];
+		for (int i = 0; i < windows.length; i++)
+		{
+			windowOffsets[i] = offsets.get(i);
+			windowBlocks[i] = blocks.get(i);
+		}
+	}
+
+	// Map a window, which is only too large if a single block is
+	private static ByteBuffer mapWindow(FileChannel channel, long start, long end) throws IOException
+	{
+		if (end - start > Integer.MAX_VALUE)
+			throw new IOException("Corrupt binary checksum list, a block is too large to be mapped!");
+		return channel.map(MapMode.READ_ONLY, start, end - start);
+	}
+
+	/**
+	 * Map a binary checksum list, only the header, footer, and index are read.
+	 * @param path The file.
+	 * @return The mapped list.
+	 * @throws IOException If any I/O exception occurs, or the file isn't a binary checksum list.
+	 */
+	public static BinaryManifest open(Path path) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			// The mappings stay valid after the channel is closed
+			return new BinaryManifest(channel);
+		}
+	}
+
+	/**
+	 * Checks if a file is a binary checksum list.
+	 * @param path The file.
+	 * @return True, if it's a regular file starting with the magic number.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static boolean isBinary(Path path) throws IOException
+	{
+		if (!Files.isRegularFile(path) || Files.size(path) < Integer.BYTES)
+			return false;
+		try (final DataInputStream input = new DataInputStream(Files.newInputStream(path)))
+		{
+			return input.readInt() == MAGIC;
+		}
+	}
+
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+
+	public String getRoot()
+	{
+		return root;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Read every entry in order.
+	 * @return The entries, safe to use alongside other readers and lookups.
+	 */
+	public ManifestSource entries()
+	{
+		final Cursor cursor = new Cursor(0);
+		return new ManifestSource()
+		{
+			@Override
+			public ManifestEntry next() throws IOException
+			{
+				return cursor.next();
+			}
+
+			@Override
+			public void close()
+			{}
+		};
+	}
+
+	/**
+	 * Look up a single entry with a binary search of the index, then a scan of at most one block.
+	 * @param file The path as it would be written in the list, normalized first.
+	 * @return An entry for the path, or null if it isn't listed.
+	 * @throws IOException If the list is corrupt.
+	 */
+	public ManifestEntry lookup(Path file) throws IOException
+	{
+		final Path target = file.normalize();
+		// Last block starting at or before the path
+		int low = 0, high = blockCount - 1, block = -1;
+		while (low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			final ManifestEntry first = new Cursor(middle).next();
+			final int comparison = Main.MANIFEST_ORDER.compare(first.getFile(), target);
+			if (comparison == 0)
+				return first;
+			if (comparison < 0)
+			{
+				block = middle;
+				low = middle + 1;
+			} else
+				high = middle - 1;
+		}
+		if (block < 0)
+			return null;
+		final Cursor cursor = new Cursor(block);
+		for (int i = 0; i < blockEntries; i++)
+		{
+			final ManifestEntry entry = cursor.next();
+			if (entry == null)
+				return null;
+			final int comparison = Main.MANIFEST_ORDER.compare(entry.getFile(), target);
+			if (comparison == 0)
+				return entry;
+			if (comparison > 0)
+				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * The last entry, which is the root directory of a list with directory digests.
+	 * @return The entry, or null if the list is empty.
+	 * @throws IOException If the list is corrupt.
+	 */
+	public ManifestEntry getLast() throws IOException
+	{
+		if (count == 0)
+			return null;
+		final Cursor cursor = new Cursor(blockCount - 1);
+		ManifestEntry entry, last = null;
+		while ((entry = cursor.next()) != null)
+			last = entry;
+		return last;
+	}
+
+	/**
+	 * Every entry directly inside a directory. They are next to each other in manifest order, so they are found with a binary search
+	 * of the index and a scan from there.
+	 * @param directory The directory as written in the list, the empty path for the root of a relative list.
+	 * @return The entries in manifest order.
+	 * @throws IOException If the list is corrupt.
+	 */
+	public List<ManifestEntry> children(Path directory) throws IOException
+	{
+		final int depth = Main.depth(directory) + 1;
+		final byte[] prefix = childPrefix(directory);
+		// Last block starting before the children
+		int low = 0, high = blockCount - 1, block = 0;
+		while (low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			if (beforeChildren(new Cursor(middle).next().getFile(), depth, prefix))
+			{
+				block = middle;
+				low = middle + 1;
+			} else
+				high = middle - 1;
+		}
+		final List<ManifestEntry> children = new ArrayList<>();
+		final Cursor cursor = new Cursor(block);
+		ManifestEntry entry;
+		while ((entry = cursor.next()) != null)
+		{
+			if (beforeChildren(entry.getFile(), depth, prefix))
+				continue;
+			if (Main.depth(entry.getFile()) != depth || !MerkleTree.parentOf(entry.getFile()).equals(directory))
+				break;
+			children.add(entry);
+		}
+		return children;
+	}
+
+	/**
+	 * Look up only some paths, in the given order.
+	 * @param paths The paths to look up.
+	 * @param unlisted Receives the paths that aren't in the list as they are reached.
+	 * @return The entries that were found.
+	 */
+	public ManifestSource select(List<Path> paths, List<Path> unlisted)
+	{
+		return new ManifestSource()
+		{
+			private int index;
+
+			@Override
+			public ManifestEntry next() throws IOException
+			{
+				while (index < paths.size())
+				{
+					final Path path = paths.get(index++);
+					final ManifestEntry entry = lookup(path);
+					if (entry != null)
+						return entry;
+					unlisted.add(path.normalize());
+				}
+				return null;
+			}
+
+			@Override
+			public void close()
+			{}
+		};
+	}
+
+	/**
+	 * Convert a text checksum list to the binary format. Entries are sorted into manifest order if they aren't already,
+	 * the order of entries with the same path is kept.
+	 * @param text The text list.
+	 * @param binary The binary list to write.
+	 * @param digest The algorithm the checksums were made with.
+	 * @param badFormats Receives any improperly formatted lines, which are left out.
+	 * @return Number of entries written.
+	 * @throws IOException If any I/O exception occurs, or a checksum's length doesn't match the algorithm.
+	 */
+	public static long fromText(Path text, Path binary, MessageDigest digest, List<String> badFormats) throws IOException
+	{
+		final List<ManifestEntry> entries = new ArrayList<>();
+		try (final ManifestReader reader = new ManifestReader(text))
+		{
+			ManifestEntry entry;
+			while ((entry = reader.next()) != null)
+			{
+				// Without the line, it's no longer needed
+				if (entry.isValid() && entry.isFor(digest.getAlgorithm()))
+					entries.add(new ManifestEntry(entry.getFile(), entry.getHash(), entry.getAlgorithm(), null, null, entry.getLineNumber()));
+				else// Also tagged with another algorithm, it couldn't be checked with this list's
+					badFormats.add(entry.getLine());
+			}
+		}
+		entries.sort(Comparator.comparing(ManifestEntry::getFile, Main.MANIFEST_ORDER));
+		final Path parent = text.toAbsolutePath().normalize().getParent();
+		try (final BinaryManifestWriter writer = new BinaryManifestWriter(binary, digest.getAlgorithm(), digest.getDigestLength(), parent != null ? parent.toString() : ""))
+		{
+			for (ManifestEntry entry : entries)
+				writer.add(entry);
+			writer.finish();
+			return writer.getCount();
+		}
+	}
+
+	/**
+	 * Convert to the text format, in the same order and with the same tags.
+	 * @param output Receives the lines.
+	 * @return Number of entries written.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public long toText(Writer output) throws IOException
+	{
+		final Cursor cursor = new Cursor(0);
+		final StringBuilder builder = new StringBuilder();
+		long written = 0;
+		ManifestEntry entry;
+		while ((entry = cursor.next()) != null)
+		{
+			builder.setLength(0);
+			final byte[] hash = entry.getHash();
+			if (entry.getAlgorithm() != null)
+			{
+				builder.append(entry.getAlgorithm()).append(" (").append(entry.isDirectory() ? MerkleTree.directoryName(entry.getFile()) : entry.getFile().toString()).append(") = ");
+				Main.appendHex(builder, hash, 0, hash.length);
+			} else
+			{
+				Main.appendHex(builder, hash, 0, hash.length);
+				builder.append("  ").append(entry.getFile());
+			}
+			output.append(builder).append('\n');
+			written++;
+		}
+		return written;
+	}
+
+	// If a path sorts before every child of a directory, which are the paths one level deeper sharing the directory's prefix
+	private static boolean beforeChildren(Path path, int depth, byte[] prefix)
+	{
+		final int pathDepth = Main.depth(path);
+		if (pathDepth != depth)
+			return pathDepth > depth;
+		return Arrays.compareUnsigned(childPrefix(MerkleTree.parentOf(path)), prefix) < 0;
+	}
+
+	// Directory name and separator as bytes, which is how paths are ordered, and nothing for the root of a relative list
+	private static byte[] childPrefix(Path directory)
+	{
+		final String name = directory.toString();
+		return (name.isEmpty() ? name : name + directory.getFileSystem().getSeparator()).getBytes(StandardCharsets.UTF_8);
+	}
+
+	// Read a length-prefixed modified UTF-8 string, as written by DataOutput#writeUTF
+	private static String readUTF(ByteBuffer buffer) throws IOException
+	{
+		final byte[] bytes = new byte[Short.BYTES + (buffer.getShort(buffer.position()) & 0xFFFF)];
+		buffer.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+
+	// Sequential reader of entries from the start of a block
+	private final class Cursor
+	{
+		private ByteBuffer view;
+		private byte[] name = new byte[256];
+		private long entry;
+
+		Cursor(int block)
+		{
+			entry = (long) block * blockEntries;
+		}
+
+		ManifestEntry next() throws IOException
+		{
+			if (entry >= count)
+				return null;
+			// Every block starts with a whole path, so it's read from its own window
+			if (entry % blockEntries == 0)
+				seek((int) (entry / blockEntries));
+			final int shared = readVarInt(), suffix = readVarInt();
+			if (shared + suffix > name.length)
+			{
+				final byte[] grown = new byte[Math.max(name.length * 2, shared + suffix)];
+				System.arraycopy(name, 0, grown, 0, shared);
+				name = grown;
+			}
+			view.get(name, shared, suffix);
+			final int tag = view.get() & 0xFF;
+			final byte[] hash = new byte[digestLength];
+			view.get(hash);
+			entry++;
+			if (tag > tags.length)
+				throw new IOException("Corrupt binary checksum list, unknown tag at entry #" + entry);
+			final String algorithm = tag > 0 ? tags[tag - 1] : null;
+			try
+			{
+				return new ManifestEntry(Paths.get(new String(name, 0, shared + suffix, StandardCharsets.UTF_8)), hash, algorithm,
+						algorithm != null ? TreeHash.forName(algorithm) : null, null, entry);
+			} catch (NoSuchAlgorithmException e)
+			{
+				throw new IOException("Unknown tree algorithm in binary checksum list: " + algorithm, e);
+			}
+		}
+
+		private void seek(int block)
+		{
+			int window = Arrays.binarySearch(windowBlocks, block);
+			if (window < 0)
+				window = -window - 2;// The window of the last block before it
+			view = windows[window].duplicate();
+			view.position((int) (index.get(block) - windowOffsets[window]));
+		}
+
+		private int readVarInt()
+		{
+			int value = 0;
+			for (int shift = 0;; shift += 7)
+			{
+				final byte b = view.get();
+				value |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a binary checksum list, see {@link BinaryManifest} for the layout.
+ * <br>
+ * Entries must be added in manifest order, so the footer index can be binary searched.
+ */
+public final class BinaryManifestWriter implements Closeable
+{
+	private final DataOutputStream output;
+	// DataOutputStream only counts up to 2 GB
+	private final Counter counter;
+	private final int digestLength;
+	private final List<String> tags = new ArrayList<>();
+	private final List<Long> blockOffsets = new ArrayList<>();
+	private byte[] previous;
+	private Path previousPath;
+	private long count;
+
+	/**
+	 * @param file The file to write.
+	 * @param algorithm The digest algorithm of the checksums.
+	 * @param digestLength Length of every checksum in bytes.
+	 * @param root The directory the list was made from.
+	 * @throws IOException If the file couldn't be created.
+	 */
+	public BinaryManifestWriter(Path file, String algorithm, int digestLength, String root) throws IOException
+	{
+		if (digestLength <= 0 || digestLength > 0xFF)
+			throw new IllegalArgumentException("The field [digestLength] must be between 1 and 255!");
+		this.digestLength = digestLength;
+		this.counter = new Counter(new BufferedOutputStream(Files.newOutputStream(file), Main.BUFFER));
+		this.output = new DataOutputStream(counter);
+		output.writeInt(BinaryManifest.MAGIC);
+		output.writeUTF(algorithm);
+		output.writeUTF(root);
+		output.writeByte(digestLength);
+		output.writeShort(BinaryManifest.BLOCK_ENTRIES);
+	}
+
+	/**
+	 * Add a parsed entry.
+	 * @param entry A valid entry.
+	 * @throws IOException If any I/O exception occurs, or the entry is out of order or has the wrong checksum length.
+	 */
+	public void add(ManifestEntry entry) throws IOException
+	{
+		add(entry.getFile().toString(), entry.getAlgorithm(), entry.getHash());
+	}
+
+	/**
+	 * Add an entry.
+	 * @param name The path as written in the list.
+	 * @param tag The tagged algorithm name, null if untagged.
+	 * @param hash The checksum in raw bytes.
+	 * @throws IOException If any I/O exception occurs, or the entry is out of order or has the wrong checksum length.
+	 */
+	public void add(String name, String tag, byte[] hash) throws IOException
+	{
+		if (hash.length != digestLength)
+			throw new IOException("Checksum of [" + name + "] is " + hash.length + " bytes long, but the list is for " + digestLength + " byte checksums!");
+		final Path path = Paths.get(name);
+		if (previousPath != null && Main.MANIFEST_ORDER.compare(previousPath, path) > 0)
+			throw new IOException("Entry [" + name + "] is out of order, binary checksum lists must be sorted by depth then name!");
+
+		final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		// Every block starts with a whole path, so it can be read without the ones before it
+		int shared = 0;
+		if (count % BinaryManifest.BLOCK_ENTRIES == 0)
+			blockOffsets.add(counter.written);
+		else
+		{
+			final int max = Math.min(previous.length, bytes.length);
+			while (shared < max && previous[shared] == bytes[shared])
+				shared++;
+		}
+		writeVarInt(shared);
+		writeVarInt(bytes.length - shared);
+		output.write(bytes, shared, bytes.length - shared);
+		output.writeByte(tagIndex(tag));
+		output.write(hash);
+		previous = bytes;
+		previousPath = path;
+		count++;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Write the tag table, index, and footer after the last entry.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void finish() throws IOException
+	{
+		final long tagsOffset = counter.written;
+		output.writeByte(tags.size());
+		for (String tag : tags)
+			output.writeUTF(tag);
+		final long indexOffset = counter.written;
+		for (long offset : blockOffsets)
+			output.writeLong(offset);
+		output.writeLong(tagsOffset);
+		output.writeLong(indexOffset);
+		output.writeLong(count);
+		output.writeInt(blockOffsets.size());
+		output.writeInt(BinaryManifest.MAGIC);
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		output.close();
+	}
+
+	// 0 for untagged, otherwise 1 more than its index in the tag table
+	private int tagIndex(String tag) throws IOException
+	{
+		if (tag == null)
+			return 0;
+		int index = tags.indexOf(tag);
+		if (index < 0)
+		{
+			if (tags.size() == 0xFF)
+				throw new IOException("Too many different tagged algorithms for a binary checksum list!");
+			tags.add(tag);
+			index = tags.size() - 1;
+		}
+		return index + 1;
+	}
+
+	// Bytes written so far, as a long
+	private static final class Counter extends FilterOutputStream
+	{
+		private long written;
+
+		Counter(OutputStream output)
+		{
+			super(output);
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			written += len;
+		}
+	}
+
+	// Unsigned LEB128
+	private void writeVarInt(int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			output.writeByte(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+}
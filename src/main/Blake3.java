@@ -0,0 +1,298 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigestSpi;
+
+/**
+ * Pure Java BLAKE3 in the default hashing mode with 32 bytes of output, matching {@code b3sum}.
+ * <br>
+ * Input is split into 1 KB chunks that form a binary tree, merged with a stack of chaining values as each chunk completes,
+ * so memory use doesn't depend on the input size.
+ */
+public final class Blake3 extends MessageDigestSpi implements Cloneable
+{
+	public static final String ALGORITHM = "BLAKE3";
+	private static final int LENGTH = 32, BLOCK = 64, CHUNK = 1024, MAX_DEPTH = 54;
+	private static final int CHUNK_START = 1, CHUNK_END = 2, PARENT = 4, ROOT = 8;
+	private static final int[] IV = {0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19};
+	private static final int[] PERMUTATION = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+	// Message word order for each of the 7 rounds, the permutation applied repeatedly
+	private static final int[][] SCHEDULE = new int[7][16];
+
+	static
+	{
+		for (int i = 0; i < 16; i++)
+			SCHEDULE[0][i] = i;
+		for (int round = 1; round < SCHEDULE.length; round++)
+			for (int i = 0; i < 16; i++)
+				SCHEDULE[round][i] = SCHEDULE[round - 1][PERMUTATION[i]];
+	}
+
+	// Chaining values of completed subtrees, at most one for each level
+	private int[][] stack = new int[MAX_DEPTH][8];
+	private int stackSize;
+	// Current chunk
+	private int[] chunkValue = new int[8];
+	private long chunkCounter;
+	private int blocksCompressed;
+	// Current block, only compressed once more input arrives since the last block of a chunk is flagged differently
+	private ByteBuffer block = ByteBuffer.allocate(BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+	// Scratch space for compression
+	private int[] words = new int[16], state = new int[16];
+
+	public Blake3()
+	{
+		engineReset();
+	}
+
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return LENGTH;
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		stackSize = 0;
+		System.arraycopy(IV, 0, chunkValue, 0, 8);
+		chunkCounter = 0;
+		blocksCompressed = 0;
+		block.clear();
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] {input}, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length)
+	{
+		engineUpdate(ByteBuffer.wrap(input, offset, length));
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		final ByteOrder order = input.order();
+		input.order(ByteOrder.LITTLE_ENDIAN);
+		while (input.hasRemaining())
+		{
+			if (!block.hasRemaining())
+			{
+				// More input follows, so the full block isn't the last one
+				if (blocksCompressed == CHUNK / BLOCK - 1)
+					finishChunk();
+				else
+				{
+					block.flip();
+					readWords(block, words);
+					compress(chunkValue, words, chunkCounter, BLOCK, startFlag(), state);
+					System.arraycopy(state, 0, chunkValue, 0, 8);
+					blocksCompressed++;
+					block.clear();
+				}
+			}
+			// Whole blocks straight from the input, keeping at least one byte back in case it's the end
+			while (block.position() == 0 && input.remaining() > BLOCK && blocksCompressed < CHUNK / BLOCK - 1)
+			{
+				readWords(input, words);
+				compress(chunkValue, words, chunkCounter, BLOCK, startFlag(), state);
+				System.arraycopy(state, 0, chunkValue, 0, 8);
+				blocksCompressed++;
+			}
+			final int take = Math.min(block.remaining(), input.remaining());
+			final int limit = input.limit();
+			input.limit(input.position() + take);
+			block.put(input);
+			input.limit(limit);
+		}
+		input.order(order);
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		// Output of the current chunk, then fold in every subtree on the stack
+		final int blockLength = block.position();
+		while (block.hasRemaining())
+			block.put((byte) 0);
+		block.flip();
+		readWords(block, words);
+		int flags = startFlag() | CHUNK_END;
+		long counter = chunkCounter;
+		final int[] value = chunkValue.clone();
+		int length = blockLength;
+		for (int i = stackSize - 1; i >= 0; i--)
+		{
+			compress(value, words, counter, length, flags, state);
+			System.arraycopy(stack[i], 0, words, 0, 8);
+			System.arraycopy(state, 0, words, 8, 8);
+			System.arraycopy(IV, 0, value, 0, 8);
+			counter = 0;
+			length = BLOCK;
+			flags = PARENT;
+		}
+		compress(value, words, counter, length, flags | ROOT, state);
+		final ByteBuffer output = ByteBuffer.allocate(LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 8; i++)
+			output.putInt(state[i]);
+		engineReset();
+		return output.array();
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		final Blake3 clone = (Blake3) super.clone();
+		clone.stack = new int[MAX_DEPTH][];
+		for (int i = 0; i < MAX_DEPTH; i++)
+			clone.stack[i] = stack[i].clone();
+		clone.chunkValue = chunkValue.clone();
+		clone.block = ByteBuffer.allocate(BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+		clone.block.put(block.duplicate().flip());
+		clone.words = new int[16];
+		clone.state = new int[16];
+		return clone;
+	}
+
+	private int startFlag()
+	{
+		return blocksCompressed == 0 ? CHUNK_START : 0;
+	}
+
+	// Compress the last block of a full chunk, push its chaining value, and merge completed subtrees
+	private void finishChunk()
+	{
+		block.flip();
+		readWords(block, words);
+		compress(chunkValue, words, chunkCounter, BLOCK, startFlag() | CHUNK_END, state);
+		final int[] value = new int[8];
+		System.arraycopy(state, 0, value, 0, 8);
+		// Every trailing zero bit of the chunk count is a subtree that is now complete
+		long chunks = ++chunkCounter;
+		while ((chunks & 1) == 0)
+		{
+			System.arraycopy(stack[--stackSize], 0, words, 0, 8);
+			System.arraycopy(value, 0, words, 8, 8);
+			compress(IV, words, 0, BLOCK, PARENT, state);
+			System.arraycopy(state, 0, value, 0, 8);
+			chunks >>>= 1;
+		}
+		System.arraycopy(value, 0, stack[stackSize++], 0, 8);
+		System.arraycopy(IV, 0, chunkValue, 0, 8);
+		blocksCompressed = 0;
+		block.clear();
+	}
+
+	private static void readWords(ByteBuffer buffer, int[] words)
+	{
+		for (int i = 0; i < 16; i++)
+			words[i] = buffer.getInt();
+	}
+
+	/**
+	 * The compression function, the result's first 8 words are the next chaining value.
+	 * <br>
+	 * The state is kept in locals and the mixing written out, since going through an array is several times slower.
+	 * @param value The input chaining value.
+	 * @param message The block as 16 little-endian words.
+	 * @param counter The chunk counter.
+	 * @param length Bytes of the block that are used.
+	 * @param flags Domain separation flags.
+	 * @param state Receives the result.
+	 */
+	private static void compress(int[] value, int[] message, long counter, int length, int flags, int[] state)
+	{
+		int s0 = value[0], s1 = value[1], s2 = value[2], s3 = value[3], s4 = value[4], s5 = value[5], s6 = value[6], s7 = value[7];
+		int s8 = IV[0], s9 = IV[1], s10 = IV[2], s11 = IV[3], s12 = (int) counter, s13 = (int) (counter >>> 32), s14 = length, s15 = flags;
+		for (int[] schedule : SCHEDULE)
+		{
+			// Columns
+			s0 += s4 + message[schedule[0]];
+			s12 = Integer.rotateRight(s12 ^ s0, 16);
+			s8 += s12;
+			s4 = Integer.rotateRight(s4 ^ s8, 12);
+			s0 += s4 + message[schedule[1]];
+			s12 = Integer.rotateRight(s12 ^ s0, 8);
+			s8 += s12;
+			s4 = Integer.rotateRight(s4 ^ s8, 7);
+			s1 += s5 + message[schedule[2]];
+			s13 = Integer.rotateRight(s13 ^ s1, 16);
+			s9 += s13;
+			s5 = Integer.rotateRight(s5 ^ s9, 12);
+			s1 += s5 + message[schedule[3]];
+			s13 = Integer.rotateRight(s13 ^ s1, 8);
+			s9 += s13;
+			s5 = Integer.rotateRight(s5 ^ s9, 7);
+			s2 += s6 + message[schedule[4]];
+			s14 = Integer.rotateRight(s14 ^ s2, 16);
+			s10 += s14;
+			s6 = Integer.rotateRight(s6 ^ s10, 12);
+			s2 += s6 + message[schedule[5]];
+			s14 = Integer.rotateRight(s14 ^ s2, 8);
+			s10 += s14;
+			s6 = Integer.rotateRight(s6 ^ s10, 7);
+			s3 += s7 + message[schedule[6]];
+			s15 = Integer.rotateRight(s15 ^ s3, 16);
+			s11 += s15;
+			s7 = Integer.rotateRight(s7 ^ s11, 12);
+			s3 += s7 + message[schedule[7]];
+			s15 = Integer.rotateRight(s15 ^ s3, 8);
+			s11 += s15;
+			s7 = Integer.rotateRight(s7 ^ s11, 7);
+			// Diagonals
+			s0 += s5 + message[schedule[8]];
+			s15 = Integer.rotateRight(s15 ^ s0, 16);
+			s10 += s15;
+			s5 = Integer.rotateRight(s5 ^ s10, 12);
+			s0 += s5 + message[schedule[9]];
+			s15 = Integer.rotateRight(s15 ^ s0, 8);
+			s10 += s15;
+			s5 = Integer.rotateRight(s5 ^ s10, 7);
+			s1 += s6 + message[schedule[10]];
+			s12 = Integer.rotateRight(s12 ^ s1, 16);
+			s11 += s12;
+			s6 = Integer.rotateRight(s6 ^ s11, 12);
+			s1 += s6 + message[schedule[11]];
+			s12 = Integer.rotateRight(s12 ^ s1, 8);
+			s11 += s12;
+			s6 = Integer.rotateRight(s6 ^ s11, 7);
+			s2 += s7 + message[schedule[12]];
+			s13 = Integer.rotateRight(s13 ^ s2, 16);
+			s8 += s13;
+			s7 = Integer.rotateRight(s7 ^ s8, 12);
+			s2 += s7 + message[schedule[13]];
+			s13 = Integer.rotateRight(s13 ^ s2, 8);
+			s8 += s13;
+			s7 = Integer.rotateRight(s7 ^ s8, 7);
+			s3 += s4 + message[schedule[14]];
+			s14 = Integer.rotateRight(s14 ^ s3, 16);
+			s9 += s14;
+			s4 = Integer.rotateRight(s4 ^ s9, 12);
+			s3 += s4 + message[schedule[15]];
+			s14 = Integer.rotateRight(s14 ^ s3, 8);
+			s9 += s14;
+			s4 = Integer.rotateRight(s4 ^ s9, 7);
+		}
+		state[0] = s0 ^ s8;
+		state[1] = s1 ^ s9;
+		state[2] = s2 ^ s10;
+		state[3] = s3 ^ s11;
+		state[4] = s4 ^ s12;
+		state[5] = s5 ^ s13;
+		state[6] = s6 ^ s14;
+		state[7] = s7 ^ s15;
+		state[8] = s8 ^ value[0];
+		state[9] = s9 ^ value[1];
+		state[10] = s10 ^ value[2];
+		state[11] = s11 ^ value[3];
+		state[12] = s12 ^ value[4];
+		state[13] = s13 ^ value[5];
+		state[14] = s14 ^ value[6];
+		state[15] = s15 ^ value[7];
+	}
+}
@@ -0,0 +1,243 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of checksums keyed by absolute path, used to skip hashing files whose metadata hasn't changed.
+ * <br>
+ * Entries under the walked directory that weren't looked up or stored during the run are dropped, so files that no
+ * longer exist drop out on their own. Entries elsewhere are kept for runs over other directories.
+ */
+public final class ChecksumCache
+{
+	private static final int MAGIC = 0x50534331;// "PSC1"
+	private static final boolean HAS_INODES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+	private final Path file;
+	// Entries from the last run not yet seen in this one
+	private final Map<String, Entry> previous;
+	// Entries seen in this run, what will be saved
+	private final Map<String, Entry> current = new ConcurrentHashMap<>();
+	private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger();
+
+	private ChecksumCache(Path file, Map<String, Entry> previous)
+	{
+		this.file = file;
+		this.previous = previous;
+	}
+
+	/**
+	 * Load the cache from a file, or start an empty one if it doesn't exist or can't be read.
+	 * @param file The cache file.
+	 * @param verbose If extra console printing should be enabled.
+	 * @return The loaded cache.
+	 */
+	public static ChecksumCache load(Path file, boolean verbose)
+	{
+		final Map<String, Entry> entries = new ConcurrentHashMap<>();
+		if (Files.isRegularFile(file))
+		{
+			try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), Main.BUFFER)))
+			{
+				if (input.readInt() != MAGIC)
+					throw new IOException("Not a checksum cache file!");
+				final int count = input.readInt();
+				for (int i = 0; i < count; i++)
+				{
+					final String path = input.readUTF();
+					final Entry entry = new Entry(input.readLong(), input.readLong(), input.readLong());
+					final int algorithms = input.readUnsignedByte();
+					for (int j = 0; j < algorithms; j++)
+					{
+						final String algorithm = input.readUTF();
+						final byte[] hash = new byte[input.readUnsignedShort()];
+						input.readFully(hash);
+						entry.hashes.put(algorithm, hash);
+					}
+					entries.put(path, entry);
+				}
+				if (verbose)
+					System.out.println("Loaded " + count + " cached checksums from: " + file);
+			} catch (EOFException e)
+			{
+				System.err.println("Warning! Cache file [" + file + "] is truncated, only " + entries.size() + " entries could be read.");
+			} catch (IOException e)
+			{
+				System.err.println("Warning! Unable to read cache file [" + file + "], starting from scratch: " + e);
+				entries.clear();
+			}
+		}
+		return new ChecksumCache(file, entries);
+	}
+
+	/**
+	 * Read the metadata the cache is keyed on.
+	 * @param path The file.
+	 * @return A new entry without any checksums.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static Entry readMetadata(Path path) throws IOException
+	{
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final long inode = HAS_INODES ? ((Number) Files.getAttribute(path, "unix:ino")).longValue() : 0;
+		return new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), inode);
+	}
+
+	/**
+	 * Get the stored checksums if the file is unchanged, and keep the entry for the next run either way.
+	 * @param path The file.
+	 * @param metadata The file's current metadata, from {@link #readMetadata(Path)}.
+	 * @param algorithms The algorithms of the wanted checksums.
+	 * @return The stored checksums in the same order, or null if the file changed or wasn't hashed with every algorithm.
+	 */
+	public byte[][] lookup(Path path, Entry metadata, String[] algorithms)
+	{
+		final String key = path.toAbsolutePath().normalize().toString();
+		final Entry stored = previous.remove(key);
+		if (stored != null && stored.matches(metadata))
+		{
+			current.put(key, stored);
+			final byte[][] hashes = new byte[algorithms.length][];
+			for (int i = 0; i < algorithms.length; i++)
+			{
+				final byte[] hash = stored.hashes.get(algorithms[i]);
+				if (hash == null)
+				{
+					misses.incrementAndGet();
+					return null;
+				}
+				hashes[i] = hash.clone();
+			}
+			hits.incrementAndGet();
+			return hashes;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Keep a file's entry for the next run without looking it up, for a file that isn't hashed since an interrupted run
+	 * already did.
+	 * @param path The file.
+	 */
+	public void keep(Path path)
+	{
+		final String key = path.toAbsolutePath().normalize().toString();
+		final Entry stored = previous.remove(key);
+		if (stored != null)
+			current.putIfAbsent(key, stored);
+	}
+
+	/**
+	 * Store newly calculated checksums.
+	 * @param path The file.
+	 * @param metadata The file's metadata from before it was hashed.
+	 * @param algorithms The algorithms of the checksums.
+	 * @param hashes The checksums in raw bytes, in the same order.
+	 */
+	public void store(Path path, Entry metadata, String[] algorithms, byte[][] hashes)
+	{
+		final String key = path.toAbsolutePath().normalize().toString();
+		final Entry entry = current.merge(key, metadata, (old, fresh) -> old.matches(fresh) ? old : fresh);
+		synchronized (entry)
+		{
+			for (int i = 0; i < algorithms.length; i++)
+				entry.hashes.put(algorithms[i], hashes[i].clone());
+		}
+	}
+
+	/**
+	 * Write every entry seen this run, and those from the last run that are kept, to a temporary file, then move it over
+	 * the old cache file in one step.
+	 * @param root The directory every file of the run was looked up under, where entries not seen are dropped since the
+	 * files no longer exist. Null if not every file under it was looked up, to keep every entry not seen.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void save(Path root) throws IOException
+	{
+		final Map<String, Entry> kept = new HashMap<>();
+		final Path walked = root != null ? root.toAbsolutePath().normalize() : null;
+		for (Map.Entry<String, Entry> mapEntry : previous.entrySet())
+			if (walked == null || !Paths.get(mapEntry.getKey()).startsWith(walked))
+				kept.put(mapEntry.getKey(), mapEntry.getValue());
+		final Path absolute = file.toAbsolutePath();
+		final Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+		try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), Main.BUFFER)))
+		{
+			output.writeInt(MAGIC);
+			output.writeInt(current.size() + kept.size());
+			for (Map.Entry<String, Entry> mapEntry : current.entrySet())
+				write(output, mapEntry.getKey(), mapEntry.getValue());
+			for (Map.Entry<String, Entry> mapEntry : kept.entrySet())
+				write(output, mapEntry.getKey(), mapEntry.getValue());
+		}
+		Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void write(DataOutputStream output, String path, Entry entry) throws IOException
+	{
+		output.writeUTF(path);
+		output.writeLong(entry.size);
+		output.writeLong(entry.modified);
+		output.writeLong(entry.inode);
+		output.writeByte(entry.hashes.size());
+		for (Map.Entry<String, byte[]> hash : entry.hashes.entrySet())
+		{
+			output.writeUTF(hash.getKey());
+			output.writeShort(hash.getValue().length);
+			output.write(hash.getValue());
+		}
+	}
+
+	public int getHits()
+	{
+		return hits.get();
+	}
+
+	public int getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Metadata of a file and its checksums by algorithm.
+	 */
+	public static final class Entry
+	{
+		private final long size, modified, inode;
+		private final Map<String, byte[]> hashes = new HashMap<>(2);
+
+		Entry(long size, long modified, long inode)
+		{
+			this.size = size;
+			this.modified = modified;
+			this.inode = inode;
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		boolean matches(Entry other)
+		{
+			return size == other.size && modified == other.modified && inode == other.inode;
+		}
+	}
+}
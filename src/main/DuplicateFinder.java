@@ -0,0 +1,338 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds identical files while reading as little as possible.
+ * <br>
+ * Files are first grouped by size, and only files sharing a size have their first and last {@link #PARTIAL} bytes hashed.
+ * Only files that still match are hashed fully. Files small enough to be covered by the partial read are never read twice.
+ * Symbolic links to files, and hard links to a file already found, are skipped since removing them wouldn't free anything.
+ */
+public final class DuplicateFinder
+{
+	public static final int PARTIAL = Main.KB * 4;// Read from each end of a file before deciding to hash it fully
+
+	private final MessageDigest digest;
+	private final IOStrategy io;
+	private final ChecksumCache cache;
+	private final int threads;
+	private final boolean verbose;
+	private long files, sizeCandidates, partialCandidates, bytesHashed;
+
+	/**
+	 * @param digest Digest algorithm instance to use, cloned for each thread.
+	 * @param io How files should be read when fully hashed.
+	 * @param cache Cache of full checksums, may be null.
+	 * @param threads Number of files to hash at once.
+	 * @param verbose If extra console printing should be enabled.
+	 */
+	public DuplicateFinder(MessageDigest digest, IOStrategy io, ChecksumCache cache, int threads, boolean verbose)
+	{
+		this.digest = digest;
+		this.io = io;
+		this.cache = cache;
+		this.threads = threads;
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Find every group of identical files under a directory.
+	 * @param start The directory to search.
+	 * @return The groups, with the most reclaimable space first.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public List<Group> find(Path start) throws IOException
+	{
+		// Group by size, empty files are all the same but take no space
+		final Map<Long, List<Path>> bySize = new HashMap<>();
+		final Set<Object> fileKeys = new HashSet<>();
+		final long walkStart = System.nanoTime();
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+			{
+				// Links to files take no space of their own, unlike links to directories, which are searched like getAllPaths does
+				if (!attributes.isRegularFile() || attributes.size() == 0 || Files.isSymbolicLink(file))
+					return FileVisitResult.CONTINUE;
+				final Object key = attributes.fileKey();
+				if (key != null && !fileKeys.add(key))
+				{
+					if (verbose)
+						System.out.println("Skipping hard link to a file already found: " + file.normalize());
+					return FileVisitResult.CONTINUE;
+				}
+				files++;
+				bySize.computeIfAbsent(attributes.size(), size -> new ArrayList<>(1)).add(file.normalize());
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e)
+			{
+				System.err.println("Warning! Unable to read [" + file.normalize() + "], skipping path: " + e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		fileKeys.clear();
+		Metrics.get().time(Metrics.Phase.WALK, walkStart);
+
+		// Hash both ends of every file that shares its size with another
+		final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> Main.cloneDigest(digest));
+		final List<Path> candidates = new ArrayList<>();
+		final List<Long> sizes = new ArrayList<>();
+		for (Map.Entry<Long, List<Path>> entry : bySize.entrySet())
+		{
+			if (entry.getValue().size() < 2)
+				continue;
+			for (Path path : entry.getValue())
+			{
+				candidates.add(path);
+				sizes.add(entry.getKey());
+			}
+		}
+		bySize.clear();
+		sizeCandidates = candidates.size();
+		if (verbose)
+			System.out.println(sizeCandidates + " of " + files + " files share their size with another, reading their ends...");
+		final List<Callable<byte[]>> partialTasks = new ArrayList<>(candidates.size());
+		for (int i = 0; i < candidates.size(); i++)
+		{
+			final Path path = candidates.get(i);
+			final long size = sizes.get(i);
+			partialTasks.add(() -> partialChecksum(path, size, digests.get()));
+		}
+		final long hashStart = System.nanoTime();
+		final List<byte[]> partials = Main.invokeAll(partialTasks, threads);
+		final Map<Key, List<Path>> byPartial = new HashMap<>();
+		for (int i = 0; i < candidates.size(); i++)
+			byPartial.computeIfAbsent(new Key(sizes.get(i), partials.get(i)), key -> new ArrayList<>(2)).add(candidates.get(i));
+
+		// Fully hash whatever still matches, unless the ends already covered the whole file
+		final List<Group> groups = new ArrayList<>();
+		final List<Path> fullCandidates = new ArrayList<>();
+		final List<Long> fullSizes = new ArrayList<>();
+		for (Map.Entry<Key, List<Path>> entry : byPartial.entrySet())
+		{
+			final List<Path> paths = entry.getValue();
+			if (paths.size() < 2)
+				continue;
+			partialCandidates += paths.size();
+			if (entry.getKey().size <= PARTIAL * 2)
+				groups.add(new Group(entry.getKey().size, entry.getKey().hash, paths));
+			else
+			{
+				for (Path path : paths)
+				{
+					fullCandidates.add(path);
+					fullSizes.add(entry.getKey().size);
+				}
+			}
+		}
+		byPartial.clear();
+		if (verbose)
+			System.out.println(fullCandidates.size() + " files still match after reading their ends, hashing them fully...");
+		final ThreadLocal<MessageDigest[]> fullDigests = ThreadLocal.withInitial(() -> new MessageDigest[] {Main.cloneDigest(digest)});
+		final AtomicInteger count = new AtomicInteger();
+		final List<Callable<FileChecksum>> fullTasks = new ArrayList<>(fullCandidates.size());
+		for (Path path : fullCandidates)
+			fullTasks.add(() -> Main.calculateChecksum(path, count.incrementAndGet(), fullDigests.get(), io, cache, null, verbose));
+		final List<FileChecksum> checksums = Main.invokeAll(fullTasks, threads);
+		Metrics.get().time(Metrics.Phase.HASH, hashStart);
+		final Map<Key, List<Path>> byChecksum = new HashMap<>();
+		for (int i = 0; i < fullCandidates.size(); i++)
+		{
+			bytesHashed += fullSizes.get(i);
+			byChecksum.computeIfAbsent(new Key(fullSizes.get(i), checksums.get(i).getBytes()), key -> new ArrayList<>(2)).add(fullCandidates.get(i));
+		}
+		for (Map.Entry<Key, List<Path>> entry : byChecksum.entrySet())
+			if (entry.getValue().size() > 1)
+				groups.add(new Group(entry.getKey().size, entry.getKey().hash, entry.getValue()));
+
+		groups.sort(Comparator.comparingLong(Group::getReclaimable).reversed().thenComparing(group -> group.paths.get(0), Main.MANIFEST_ORDER));
+		return groups;
+	}
+
+	/**
+	 * Write the machine-readable report.
+	 * @param json Where to write the report.
+	 * @param groups The groups found.
+	 * @param inputPath The directory searched, used to relativize the paths.
+	 * @param absolutePaths If the paths should be absolute instead.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void writeReport(JsonWriter json, List<Group> groups, Path inputPath, boolean absolutePaths) throws IOException
+	{
+		long duplicates = 0, reclaimable = 0;
+		for (Group group : groups)
+		{
+			duplicates += group.paths.size() - 1;
+			reclaimable += group.getReclaimable();
+		}
+		json.beginObject();
+		json.name("root").value(inputPath.normalize().toAbsolutePath().toString());
+		json.name("algorithm").value(digest.getAlgorithm());
+		json.name("files").value(files);
+		json.name("sizeCandidates").value(sizeCandidates);
+		json.name("partialCandidates").value(partialCandidates);
+		json.name("bytesHashed").value(bytesHashed);
+		json.name("groups").value(groups.size());
+		json.name("duplicateFiles").value(duplicates);
+		json.name("reclaimableBytes").value(reclaimable);
+		json.name("duplicates").beginArray();
+		for (Group group : groups)
+		{
+			json.beginObject();
+			json.name("size").value(group.size);
+			json.name("checksum").value(Main.bytesToHex(group.hash));
+			json.name("reclaimableBytes").value(group.getReclaimable());
+			json.name("paths").beginArray();
+			for (Path path : group.paths)
+				json.value((absolutePaths ? path.toAbsolutePath() : path.startsWith(inputPath) && !path.equals(inputPath) ? inputPath.relativize(path) : path).toString());
+			json.endArray();
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+	}
+
+	public long getFiles()
+	{
+		return files;
+	}
+
+	public long getBytesHashed()
+	{
+		return bytesHashed;
+	}
+
+	/**
+	 * Hash the first and last {@link #PARTIAL} bytes of a file, or the whole file if that covers it.
+	 * @param path The file.
+	 * @param size Size of the file when it was found.
+	 * @param digest This thread's digest.
+	 * @return The checksum of the ends.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private static byte[] partialChecksum(Path path, long size, MessageDigest digest) throws IOException
+	{
+		digest.reset();
+		final IOLimiter.Permit permit = IOLimiter.get().acquire(path);
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate(PARTIAL * 2);
+			if (size > PARTIAL * 2)
+			{
+				readFully(channel, buffer.limit(PARTIAL), 0);
+				readFully(channel, buffer.limit(PARTIAL * 2), size - PARTIAL);
+			} else
+				readFully(channel, buffer.limit((int) size), 0);
+			IOLimiter.get().throttle(buffer.position());
+			buffer.flip();
+			digest.update(buffer);
+			return digest.digest();
+		} finally
+		{
+			permit.close();
+		}
+	}
+
+	// Positional read until the buffer is full
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			final int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new IOException("File shrunk while looking for duplicates!");
+			position += read;
+		}
+	}
+
+	/**
+	 * Identical files, all the same size with the same checksum.
+	 */
+	public static final class Group
+	{
+		private final long size;
+		private final byte[] hash;
+		private final List<Path> paths;
+
+		Group(long size, byte[] hash, List<Path> paths)
+		{
+			this.size = size;
+			this.hash = hash;
+			this.paths = paths;
+			paths.sort(Main.MANIFEST_ORDER);
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		public List<Path> getPaths()
+		{
+			return Collections.unmodifiableList(paths);
+		}
+
+		// Space freed by keeping only one copy
+		public long getReclaimable()
+		{
+			return size * (paths.size() - 1);
+		}
+	}
+
+	// Size and checksum, compared by content
+	private static final class Key
+	{
+		private final long size;
+		private final byte[] hash;
+
+		Key(long size, byte[] hash)
+		{
+			this.size = size;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(size) * 31 + Arrays.hashCode(hash);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return size == other.size && Arrays.equals(hash, other.hash);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package main;
+
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * Security provider for the fast, non-cryptographic hashes, so they can be used everywhere a {@link java.security.MessageDigest} is.
+ * <br>
+ * Once installed they are listed by {@link AlgorithmCandidates}, can be selected with {@code -a}, and get their own extension
+ * like any other algorithm. They only detect accidental changes like bit rot, not deliberate tampering.
+ */
+public final class FastHashProvider extends Provider
+{
+	private static final long serialVersionUID = 2474925313287512761L;
+	public static final String NAME = "PathSum";
+
+	public FastHashProvider()
+	{
+		super(NAME, Main.VERSION.getMajor() + "." + Main.VERSION.getMinor(), "Fast hashes for detecting accidental changes (XXH64, BLAKE3)");
+		put("MessageDigest." + XXH64.ALGORITHM, XXH64.class.getName());
+		put("MessageDigest." + Blake3.ALGORITHM, Blake3.class.getName());
+	}
+
+	/**
+	 * Add the provider after the JRE's own, safe to call more than once.
+	 */
+	public static void install()
+	{
+		if (Security.getProvider(NAME) == null)
+			Security.addProvider(new FastHashProvider());
+	}
+}
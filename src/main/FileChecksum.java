@@ -3,56 +3,124 @@ package main;
 import java.io.Serializable;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The checksums of a file, one per algorithm.
+ * <br>
+ * Kept compact since there can be millions at once: the checksums are stored back to back in a single array, the
+ * algorithm names and where each checksum starts are shared by every file hashed with the same algorithms, and the hex
+ * is only made when asked for or appended directly when written.
+ */
 public class FileChecksum implements Serializable
 {
-	private static final long serialVersionUID = -4930384739891546680L;
+	private static final long serialVersionUID = -4176236419586301837L;
+	private static final Map<List<String>, Layout> LAYOUTS = new ConcurrentHashMap<>();
 	private final Path file;
-	private final String hash, algorithm;
-	private final byte[] bytes;
-	
+	private final Layout layout;
+	// Every checksum back to back, in the same order as the algorithms
+	private final byte[] digests;
+
 	public FileChecksum(Path file, byte[] hash, String algorithm)
 	{
-		this.file = file;
-		this.bytes = hash;
-		this.hash = Main.bytesToHex(true, hash);
-		this.algorithm = algorithm;
+		this(file, new byte[][] {hash}, new String[] {algorithm});
 	}
-	
-	public FileChecksum(Path file, byte[] bytes, String hash, String algorithm)
+
+	public FileChecksum(Path file, byte[][] hashes, String[] algorithms)
 	{
+		if (hashes.length != algorithms.length)
+			throw new IllegalArgumentException("Every checksum must have an algorithm!");
 		this.file = file;
-		this.bytes = bytes;
-		this.hash = hash;
-		this.algorithm = algorithm;
+		this.layout = layoutOf(hashes, algorithms);
+		this.digests = new byte[layout.offsets[hashes.length]];
+		for (int i = 0; i < hashes.length; i++)
+			System.arraycopy(hashes[i], 0, digests, layout.offsets[i], hashes[i].length);
+	}
+
+	// The shared layout for these algorithms and checksum lengths
+	private static Layout layoutOf(byte[][] hashes, String[] algorithms)
+	{
+		final Layout shared = LAYOUTS.get(Arrays.asList(algorithms));
+		// Lengths only differ if an algorithm's name is reused, which is too rare to share
+		if (shared != null)
+			return shared.fits(hashes) ? shared : new Layout(algorithms.clone(), hashes);
+		// Keyed by its own copy of the names, the caller's array may change
+		final Layout created = new Layout(algorithms.clone(), hashes);
+		final Layout raced = LAYOUTS.putIfAbsent(Arrays.asList(created.algorithms), created);
+		return raced != null ? layoutOf(hashes, algorithms) : created;
 	}
-	
+
 	public Path getFile()
 	{
 		return file;
 	}
 
+	// Number of algorithms
+	public int getCount()
+	{
+		return layout.algorithms.length;
+	}
+
 	public String getHash()
 	{
-		return hash;
+		return getHash(0);
+	}
+
+	// Made on every call, use addToBuilder when writing
+	public String getHash(int index)
+	{
+		return Main.bytesToHex(getBytes(index));
 	}
 
 	public String getAlgorithm()
 	{
-		return algorithm;
+		return getAlgorithm(0);
+	}
+
+	public String getAlgorithm(int index)
+	{
+		return layout.algorithms[index];
 	}
-	
+
 	public byte[] getBytes()
 	{
-		return bytes.clone();
+		return getBytes(0);
+	}
+
+	public byte[] getBytes(int index)
+	{
+		return Arrays.copyOfRange(digests, layout.offsets[index], layout.offsets[index + 1]);
+	}
+
+	// The path as written in a checksum list
+	public Path getName(Path inputPath, boolean absolutePaths)
+	{
+		return absolutePaths ? file.toAbsolutePath() : file.startsWith(inputPath) && !file.equals(inputPath) ? inputPath.relativize(file) : file;
 	}
 
 	public void addToBuilder(StringBuilder builder, Path inputPath, boolean absolutePaths)
 	{
-		builder.append(getHash()).append("  ").append(absolutePaths
-				? getFile().toAbsolutePath() : getFile().startsWith(inputPath) && !getFile().equals(inputPath)
-						? inputPath.relativize(getFile()) : getFile()).append('\n');
+		addToBuilder(builder, 0, inputPath, absolutePaths);
+	}
+
+	public void addToBuilder(StringBuilder builder, int index, Path inputPath, boolean absolutePaths)
+	{
+		final Path name = getName(inputPath, absolutePaths);
+		final int offset = layout.offsets[index], length = layout.offsets[index + 1] - offset;
+		// Other tools can't check tree hashes, so use the tagged format to name the algorithm
+		if (TreeHash.isTreeAlgorithm(layout.algorithms[index]))
+		{
+			builder.append(layout.algorithms[index]).append(" (").append(name).append(") = ");
+			Main.appendHex(builder, digests, offset, length);
+			builder.append('\n');
+		} else
+		{
+			Main.appendHex(builder, digests, offset, length);
+			builder.append("  ").append(name).append('\n');
+		}
 	}
 
 	@Override
@@ -60,8 +128,9 @@ public class FileChecksum implements Serializable
 	{
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Arrays.hashCode(bytes);
-		result = prime * result + Objects.hash(algorithm, file, hash);
+		result = prime * result + Arrays.hashCode(digests);
+		result = prime * result + Arrays.hashCode(layout.algorithms);
+		result = prime * result + Objects.hash(file);
 		return result;
 	}
 
@@ -73,17 +142,48 @@ public class FileChecksum implements Serializable
 		if (!(obj instanceof FileChecksum))
 			return false;
 		final FileChecksum other = (FileChecksum) obj;
-		return Objects.equals(algorithm, other.algorithm) && Arrays.equals(bytes, other.bytes)
-				&& Objects.equals(file, other.file) && Objects.equals(hash, other.hash);
+		// Same algorithms and the same bytes means the same lengths
+		return Arrays.equals(layout.algorithms, other.layout.algorithms) && Arrays.equals(digests, other.digests)
+				&& Objects.equals(file, other.file);
 	}
 
 	@Override
 	public String toString()
 	{
+		final String[] hashes = new String[getCount()];
+		for (int i = 0; i < hashes.length; i++)
+			hashes[i] = getHash(i);
 		final StringBuilder builder = new StringBuilder();
-		builder.append("FileChecksum [file=").append(file).append(", hash=").append(hash).append(", algorithm=")
-				.append(algorithm).append(", bytes=").append(Arrays.toString(bytes)).append(']');
+		builder.append("FileChecksum [file=").append(file).append(", hashes=").append(Arrays.toString(hashes)).append(", algorithms=")
+				.append(Arrays.toString(layout.algorithms)).append(']');
 		return builder.toString();
 	}
 
+	/**
+	 * Algorithm names and where each one's checksum starts, shared by every file hashed with them.
+	 */
+	private static final class Layout implements Serializable
+	{
+		private static final long serialVersionUID = 6320956817351729041L;
+		private final String[] algorithms;
+		// One more than the algorithms, the last is the total length
+		private final int[] offsets;
+
+		Layout(String[] algorithms, byte[][] hashes)
+		{
+			this.algorithms = algorithms;
+			this.offsets = new int[hashes.length + 1];
+			for (int i = 0; i < hashes.length; i++)
+				offsets[i + 1] = offsets[i] + hashes[i].length;
+		}
+
+		// If the checksums have the lengths of this layout
+		boolean fits(byte[][] hashes)
+		{
+			for (int i = 0; i < hashes.length; i++)
+				if (offsets[i + 1] - offsets[i] != hashes[i].length)
+					return false;
+			return true;
+		}
+	}
 }
@@ -0,0 +1,260 @@
+package main;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how files are read, shared by every thread reading them.
+ * <br>
+ * Each device gets its own limit on files read at once, so one run can cover an SSD and a spinning disk without either
+ * seeking itself to a crawl or sitting idle. When asked to, spinning disks are detected on Linux and read
+ * {@link #ROTATIONAL_READERS} files at a time, since many virtual disks claim to be spinning. Other devices aren't
+ * limited beyond the thread count. The total rate can also be capped, so a run
+ * can share a disk with something more important.
+ * <br>
+ * On network file systems, many more files can be in flight than there are cores, each on a virtual thread that mostly
+ * waits on the server. Digesting is then limited to the thread count so the readers don't crowd out each other's hashing,
+ * and read buffers of {@link #IN_FLIGHT_BUFFER} are shared, since the readers don't live long enough to keep their own.
+ */
+public final class IOLimiter
+{
+	public static final int ROTATIONAL_READERS = 2;
+	public static final int IN_FLIGHT_BUFFER = Main.KB * 256;// Smaller than the usual buffer, there can be thousands in use
+	private static final Semaphore UNLIMITED = new Semaphore(0);
+	private static final Permit NO_PERMIT = () -> {};
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static volatile IOLimiter installed = new IOLimiter(false, false, 0, 0, 0);
+
+	private final Map<Object, Semaphore> devices = new ConcurrentHashMap<>();
+	private final boolean perDevice, detectRotational;
+	private final long bytesPerSecond;
+	private final int inFlight;
+	// Only when reading on virtual threads
+	private final Semaphore digesting;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private volatile boolean unixDevices = true;
+	// When the rate allows the next read to start
+	private long next;
+
+	/**
+	 * A file being read, closed when done to let another file on the same device be read.
+	 */
+	public interface Permit extends AutoCloseable
+	{
+		@Override
+		void close();
+	}
+
+	/**
+	 * @param readers Files read at once for the device holding each path, replacing the detected limit.
+	 * @param detectRotational If spinning disks should be detected and read {@link #ROTATIONAL_READERS} files at a time.
+	 * @param bytesPerSecond Total bytes read per second, 0 for no limit.
+	 * @param inFlight Files read at once on virtual threads, 0 to read them on the hashing threads.
+	 * @param digesters Files digested at once when reading on virtual threads.
+	 * @throws IOException If the device of a path couldn't be found.
+	 */
+	public IOLimiter(Map<Path, Integer> readers, boolean detectRotational, long bytesPerSecond, int inFlight, int digesters) throws IOException
+	{
+		this(true, detectRotational, bytesPerSecond, inFlight, digesters);
+		for (Map.Entry<Path, Integer> entry : readers.entrySet())
+			devices.put(deviceOf(entry.getKey()), new Semaphore(entry.getValue(), true));
+	}
+
+	private IOLimiter(boolean perDevice, boolean detectRotational, long bytesPerSecond, int inFlight, int digesters)
+	{
+		this.perDevice = perDevice;
+		this.detectRotational = detectRotational;
+		this.bytesPerSecond = bytesPerSecond;
+		this.inFlight = inFlight;
+		this.digesting = inFlight > 0 ? new Semaphore(digesters) : null;
+	}
+
+	/**
+	 * Use a limiter for every read from now on.
+	 * @param limiter The limiter.
+	 */
+	public static void install(IOLimiter limiter)
+	{
+		installed = limiter;
+	}
+
+	// The limiter in use, which doesn't limit anything unless another was installed
+	public static IOLimiter get()
+	{
+		return installed;
+	}
+
+	/**
+	 * Wait until another file can be read from the device holding a path.
+	 * @param path The file about to be read.
+	 * @return The permit to close once the file has been read.
+	 * @throws IOException If interrupted while waiting, or the file's device couldn't be found.
+	 */
+	public Permit acquire(Path path) throws IOException
+	{
+		if (!perDevice)
+			return NO_PERMIT;
+		final Semaphore semaphore = devices.computeIfAbsent(deviceOf(path), device -> detect(path));
+		if (semaphore == UNLIMITED)
+			return NO_PERMIT;
+		try
+		{
+			semaphore.acquire();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to read: " + path);
+		}
+		return semaphore::release;
+	}
+
+	/**
+	 * Account for bytes that were just read, waiting if they went over the rate.
+	 * @param bytes Number of bytes read.
+	 * @throws InterruptedIOException If interrupted while waiting.
+	 */
+	public void throttle(long bytes) throws InterruptedIOException
+	{
+		if (bytesPerSecond <= 0)
+			return;
+		final long wait;
+		synchronized (this)
+		{
+			// Each read takes its turn of the budget, the time since the last one isn't saved up for a burst
+			final long now = System.nanoTime(), start = Math.max(next, now);
+			next = start + bytes * SECOND / bytesPerSecond;
+			wait = start - now;
+		}
+		if (wait <= 0)
+			return;
+		try
+		{
+			TimeUnit.NANOSECONDS.sleep(wait);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while limiting the read rate!");
+		}
+	}
+
+	// The device number where it's available, since finding a path's store reads the mount table every time
+	private Object deviceOf(Path path) throws IOException
+	{
+		if (unixDevices)
+		{
+			try
+			{
+				return Files.getAttribute(path, "unix:dev");
+			} catch (UnsupportedOperationException | IllegalArgumentException e)
+			{
+				unixDevices = false;
+			}
+		}
+		return Files.getFileStore(path);
+	}
+
+	// Files read at once on virtual threads, 0 if read on the hashing threads
+	public int getInFlight()
+	{
+		return inFlight;
+	}
+
+	/**
+	 * Wait for a turn to digest, when reading on virtual threads.
+	 * @throws InterruptedIOException If interrupted while waiting.
+	 */
+	public void startDigest() throws InterruptedIOException
+	{
+		if (digesting == null)
+			return;
+		try
+		{
+			digesting.acquire();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to digest!");
+		}
+	}
+
+	// Let another reader digest
+	public void endDigest()
+	{
+		if (digesting != null)
+			digesting.release();
+	}
+
+	// A buffer to read a file through, this thread's own unless reading on virtual threads
+	public ByteBuffer takeBuffer()
+	{
+		if (inFlight <= 0)
+			return Main.BUFFERS.get();
+		final ByteBuffer buffer = buffers.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(IN_FLIGHT_BUFFER);
+	}
+
+	// Done reading through a buffer from takeBuffer
+	public void returnBuffer(ByteBuffer buffer)
+	{
+		if (inFlight > 0)
+			buffers.add(buffer);
+	}
+
+	// Limit for a device seen for the first time
+	private Semaphore detect(Path path)
+	{
+		if (!detectRotational)
+			return UNLIMITED;
+		try
+		{
+			final FileStore store = Files.getFileStore(path);
+			if (!isRotational(store))
+				return UNLIMITED;
+			// Not mixed into a checksum list printed to the console
+			System.err.println("Reading " + ROTATIONAL_READERS + " files at a time from the spinning disk: " + store.name());
+			return new Semaphore(ROTATIONAL_READERS, true);
+		} catch (IOException e)
+		{
+			return UNLIMITED;
+		}
+	}
+
+	/**
+	 * Checks if a store is on a spinning disk, only known on Linux.
+	 * @param store The store.
+	 * @return True, if the kernel reports its device, or the disk its partition is on, as rotational.
+	 */
+	static boolean isRotational(FileStore store)
+	{
+		final String name = store.name();
+		if (!name.startsWith("/dev/"))
+			return false;
+		try
+		{
+			// Mapped devices are links to their real name
+			final Path device = Paths.get(name).toRealPath();
+			final Path block = Paths.get("/sys/class/block", device.getFileName().toString()).toRealPath();
+			Path rotational = block.resolve("queue/rotational");
+			if (!Files.exists(rotational))
+				rotational = block.resolveSibling("queue/rotational");
+			final List<String> lines = Files.readAllLines(rotational);
+			return !lines.isEmpty() && lines.get(0).trim().equals("1");
+		} catch (IOException | InvalidPathException e)
+		{
+			return false;
+		}
+	}
+}
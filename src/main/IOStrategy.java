@@ -0,0 +1,28 @@
+package main;
+
+/**
+ * How a file's contents are fed into the digest.
+ */
+public enum IOStrategy
+{
+	/** Pick one of the others depending on the file's size. */
+	AUTO,
+	/** Read through a reused buffer, works on any file. */
+	STREAM,
+	/** Read the next buffer on another thread while the last one is digested, costing a thread and two more buffers per file. */
+	AHEAD,
+	/** Map the file into memory in windows, avoiding the extra copy into a buffer. */
+	MMAP;
+	
+	/**
+	 * Get the strategy to actually use for a file.
+	 * @param size The size of the file.
+	 * @return This strategy, or if automatic, the one best suited for the size.
+	 */
+	public IOStrategy resolve(long size)
+	{
+		if (this != AUTO)
+			return this;
+		return size >= Main.MMAP_THRESHOLD ? MMAP : STREAM;
+	}
+}
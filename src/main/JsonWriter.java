@@ -0,0 +1,171 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming JSON writer for the machine-readable reports, indented with tabs.
+ * <br>
+ * It doesn't check that the calls make a valid document, that is up to the caller.
+ */
+public final class JsonWriter implements Closeable
+{
+	private final Writer writer;
+	// If each open object or array has anything in it yet
+	private final Deque<Boolean> hasElements = new ArrayDeque<>();
+	private boolean afterName;
+
+	/**
+	 * @param writer Where to write the document, closed along with this.
+	 */
+	public JsonWriter(Writer writer)
+	{
+		this.writer = writer;
+	}
+
+	public JsonWriter beginObject() throws IOException
+	{
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException
+	{
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException
+	{
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException
+	{
+		return close(']');
+	}
+
+	/**
+	 * Write the name of the next member of an object.
+	 * @param name The name.
+	 * @return This writer.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public JsonWriter name(String name) throws IOException
+	{
+		beforeValue();
+		writeString(name);
+		writer.write(": ");
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) throws IOException
+	{
+		beforeValue();
+		if (value == null)
+			writer.write("null");
+		else
+			writeString(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException
+	{
+		beforeValue();
+		writer.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(double value) throws IOException
+	{
+		beforeValue();
+		// JSON has no infinity or NaN
+		writer.write(Double.isFinite(value) ? Double.toString(value) : "null");
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException
+	{
+		beforeValue();
+		writer.write(Boolean.toString(value));
+		return this;
+	}
+
+	public void flush() throws IOException
+	{
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		writer.close();
+	}
+
+	private JsonWriter open(char bracket) throws IOException
+	{
+		beforeValue();
+		writer.write(bracket);
+		hasElements.push(false);
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException
+	{
+		if (hasElements.pop())
+			newLine();
+		writer.write(bracket);
+		// The document is complete
+		if (hasElements.isEmpty())
+			writer.write('\n');
+		return this;
+	}
+
+	// Separate from the previous element, unless this is the value of a name
+	private void beforeValue() throws IOException
+	{
+		if (afterName)
+		{
+			afterName = false;
+			return;
+		}
+		if (hasElements.isEmpty())
+			return;
+		if (hasElements.pop())
+			writer.write(',');
+		hasElements.push(true);
+		newLine();
+	}
+
+	private void newLine() throws IOException
+	{
+		writer.write('\n');
+		for (int i = 0; i < hasElements.size(); i++)
+			writer.write('\t');
+	}
+
+	private void writeString(String value) throws IOException
+	{
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			final char c = value.charAt(i);
+			switch (c)
+			{
+				case '"': writer.write("\\\""); break;
+				case '\\': writer.write("\\\\"); break;
+				case '\n': writer.write("\\n"); break;
+				case '\r': writer.write("\\r"); break;
+				case '\t': writer.write("\\t"); break;
+				default:
+					if (c < 0x20)
+						writer.write(String.format("\\u%04x", (int) c));
+					else
+						writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -1,25 +1,45 @@
 package main;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.DigestInputStream;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
-import me.tongfei.progressbar.ProgressBar;
-import me.tongfei.progressbar.ProgressBarBuilder;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -37,7 +57,9 @@ import picocli.CommandLine.Option;
 		exitCodeList = {
 				"0:Normal execution",
 				"1:General exception",
-				"2:Invalid parameter format"},
+				"2:Invalid parameter format",
+				"3:Stopped checking early after reaching the failure limit",
+				"4:Differences found when comparing"},
 		footerHeading = "%n@|bold Example:|@%n",
 		footer = {"java -jar path-checksum -p ~/Documents -a sha1 -e ~/Checksums -v"})
 public class Main implements Callable<Integer>
@@ -49,21 +71,81 @@ public class Main implements Callable<Integer>
 	public static final long GB = MB * KB, TB = GB * KB, PB = TB * KB;
 
 	public static final int BUFFER = MB * 8;// 8 MB is roughly ideal size for most applications
+	// Manifest sort order, depth then name
+	public static final Comparator<Path> MANIFEST_ORDER = Comparator.comparingInt(Main::depth).reversed().thenComparing(Comparator.naturalOrder());
+	public static final long MMAP_THRESHOLD = MB * 256L;// Files at least this big are mapped when the I/O strategy is automatic
+	public static final int MMAP_WINDOW = MB * 256;// Mapped at once, limited by MappedByteBuffer being int indexed
+	public static final int CHECK_WINDOW = 16;// Entries in flight per thread when checking in parallel, also bounds the reorder buffer
+	public static final int WALK_QUEUE = KB * 4;// Found files waiting to be hashed, bounds memory use no matter the size of the tree
+	// Marks the end of the walk in the queue, compared by identity
+	private static final Path END_OF_WALK = Paths.get("");
+	// Read buffer for each hashing thread, reused for every file so steady-state hashing doesn't allocate
+	static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER));
+	// Hexadecimal digits by value, and the value of each ASCII character as a digit or -1, so neither way allocates
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final byte[] HEX_VALUES = hexValues();
 	
 	@Option(names = {"-p", "--path"}, required = true, paramLabel = "path", description = {"The path to check files. Defaults to running path."}, defaultValue = "")
 	private Path inputPath;
 	@Option(names = {"-e", "--export"}, paramLabel = "path", description = {"Export path of the checksums file or log report. Defaults to the input path."})
 	private Path outputPath;
-	@Option(names = {"-a", "--algorithm"}, paramLabel = "name", description = {"The algorithm to use for the checksum. Defaults to SHA-256.", "Any JRE supported algorithm may be used"}, defaultValue = "SHA-256", completionCandidates = AlgorithmCandidates.class)
-	private MessageDigest digest;
+	@Option(names = {"-a", "--algorithm"}, paramLabel = "name", split = ",", description = {"The algorithm to use for the checksum. Defaults to SHA-256.", "Any JRE supported algorithm may be used", "Several may be given separated by commas to read every file only once and write a checksum file for each."}, defaultValue = "SHA-256", completionCandidates = AlgorithmCandidates.class)
+	private MessageDigest[] digests;
 	@Option(names = {"-c", "--check"}, description = {"Check and verify a checksum file instead of generating one."})
 	private boolean checkMode;
 	@Option(names = {"-v", "--verbose"}, description = {"Verbose printing of the progress.", "Ideally should only be used when exporting the result, since the output may be lengthy to copy-paste."})
 	private boolean verbose;
+	@Option(names = {"-t", "--threads"}, paramLabel = "count", description = {"Number of files to hash at once using a work-stealing pool. Defaults to 1.", "Every thread reads from any device unless limited by --device-threads or --spinning-disks."}, defaultValue = "1")
+	private int threads;
+	@Option(names = {"--io"}, paramLabel = "strategy", description = {"How files are read: ${COMPLETION-CANDIDATES}. Defaults to AUTO.", "AUTO memory-maps files of at least 256 MB and streams the rest.", "AHEAD reads the next buffer on another thread while hashing, using a thread and two " + BUFFER / MB + " MB buffers for each file being read."}, defaultValue = "AUTO")
+	private IOStrategy io;
+	@Option(names = {"--schedule"}, paramLabel = "order", description = {"Order found files are hashed in: ${COMPLETION-CANDIDATES}. Defaults to WALK.", "DIRECTORY and INODE seek less on spinning disks, SIZE hashes the largest files first so one doesn't finish long after the rest.", "The checksum list is sorted the same either way."}, defaultValue = "WALK")
+	private Schedule schedule;
+	@Option(names = {"--device-threads"}, paramLabel = "path=count", split = ",", description = {"Files read at once from the device holding each path, for example /mnt/disk1=1.", "Other devices are read by every thread."})
+	private Map<Path, Integer> deviceThreads = new LinkedHashMap<>();
+	@Option(names = {"--spinning-disks"}, description = {"Detect spinning disks on Linux and read " + IOLimiter.ROTATIONAL_READERS + " files at a time from each, unless given in --device-threads.", "Off by default, since many virtual and cloud disks report being spinning."})
+	private boolean spinningDisks;
+	@Option(names = {"--max-bandwidth"}, paramLabel = "MB", description = {"Read at most this many MB per second in total, so a run doesn't starve other work on the same disks.", "Defaults to no limit."})
+	private long maxBandwidth;
+	@Option(names = {"--in-flight"}, paramLabel = "count", description = {"Walk and read up to this many files and directories at once, for network file systems where each call waits on the server.", "Uses virtual threads where the runtime has them, only --threads files are digested at once. Every read buffers " + IOLimiter.IN_FLIGHT_BUFFER / KB + " KB.", "Defaults to 0, which is off."})
+	private int inFlight;
+	@Option(names = {"-q", "--quiet"}, description = {"No progress bar and nothing printed for each file, only the summary.", "The checksum list is still printed if there is no export path."})
+	private boolean quiet;
+	@Option(names = {"--tree"}, paramLabel = "MB", description = {"Hash a single file as a tree of chunks this many MB in size, so it can be split across every thread.", "Written in the tagged format using its own algorithm name. Only applies when the path is a file."})
+	private int treeChunk;
+	@Option(names = {"--max-failures"}, paramLabel = "count", description = {"Stop checking after this many failed checksums and exit with code 3. Defaults to 0, which never stops early."}, defaultValue = "0")
+	private int maxFailures;
+	@Option(names = {"--fail-fast"}, description = {"Stop checking at the first failed checksum, same as --max-failures 1."})
+	private boolean failFast;
+	@Option(names = {"--cache"}, paramLabel = "path", description = {"Cache file to reuse checksums of files whose size, modification time, and inode haven't changed since the last run.", "Created if it doesn't exist and rewritten at the end of the run."})
+	private Path cachePath;
+	@Option(names = {"--binary"}, description = {"Write the checksum list in the compact binary format with the .psm extension instead of text.", "Check mode recognizes it automatically and only reads the entries it needs."})
+	private boolean binary;
+	@Option(names = {"--convert"}, description = {"Convert the checksum list at the path between the text and binary formats, written next to it or to the export path.", "The algorithm of a text list is given with -a."})
+	private boolean convert;
+	@Option(names = {"--only"}, paramLabel = "path", split = ",", description = {"Only check these paths, as written in the checksum list.", "Looked up through the index of a binary list without reading the rest of it."})
+	private List<Path> onlyPaths;
+	@Option(names = {"--diff"}, paramLabel = "path", description = {"Compare the checksum list at the path with this newer checksum list, or with the current files in this directory.", "Reports added, removed, modified, and renamed files in a single pass, and exits with code 4 if there are any."})
+	private Path diffPath;
+	@Option(names = {"--dedupe"}, description = {"Find identical files in the directory instead of making a checksum list, written as a JSON report with the space that could be reclaimed.", "Only files sharing a size have their ends read, and only files whose ends match are hashed fully."})
+	private boolean dedupe;
+	@Option(names = {"--merkle"}, description = {"Also add a digest of every directory, calculated from the checksums and names of its children.", "Comparing binary lists with --diff then skips every directory whose digest matches."})
+	private boolean merkle;
+	@Option(names = {"--resume"}, description = {"Continue an interrupted run from the partial lists it left next to the output, only hashing the files not in them yet.", "Must be given the same path, algorithms, and export path as the interrupted run."})
+	private boolean resume;
+	@Option(names = {"--watch"}, description = {"Keep running after hashing the directory, hashing files again only when they change and rewriting the checksum lists at the export path.", "Reads commands from standard input: verify [path], flush, status, and quit."})
+	private boolean watch;
+	@Option(names = {"--debounce"}, paramLabel = "seconds", description = {"When watching, wait until a changed file has had no new changes for this long before hashing it. Defaults to 2."}, defaultValue = "2")
+	private int debounce;
+	@Option(names = {"--flush-interval"}, paramLabel = "seconds", description = {"When watching, rewrite the checksum lists at most this often if anything changed. Defaults to 60."}, defaultValue = "60")
+	private int flushInterval;
+	@Option(names = {"--metrics"}, paramLabel = "path", description = {"Write a JSON summary of the run here when it ends: time spent in each phase, files and bytes per second, per-file latency, and counters for each algorithm."})
+	private Path metricsPath;
+	@Option(names = {"--prometheus"}, paramLabel = "path", description = {"Keep the same metrics in a Prometheus text file while running, rewritten every " + Metrics.EXPORT_INTERVAL + " seconds.", "For example in the directory of the node exporter's textfile collector."})
+	private Path prometheusPath;
 	@Option(names = {"--force-absolute"}, description = {"Force the use of absolute paths in the output file.", "Useful in case the runtime location is the same as the input path and the full path is preferred."})
 	private boolean absolutePathNames;
 	
-	private final StringBuilder builder = new StringBuilder();
 	private long startTime;
 	public Main()
 	{}
@@ -72,116 +154,440 @@ public class Main implements Callable<Integer>
 	public int createSum() throws IOException
 	{
 		// Notify user
-		System.out.println("Recogized path as: " + inputPath.normalize().toAbsolutePath() + " and algorithm as: " + digest.getAlgorithm().toUpperCase() + (outputPath != null ? " with the output path: " + outputPath : " and no output path") + ", and is in hash mode.");
+		System.out.println("Recogized path as: " + inputPath.normalize().toAbsolutePath() + " and algorithm as: " + algorithmNames() + (outputPath != null ? " with the output path: " + outputPath : " and no output path") + ", and is in hash mode.");
 		System.out.println("Starting checksum of path: " + inputPath.normalize().toAbsolutePath());
 		
-		// Try to initially create output file, fails here instead of at the very end
+		// Try to initially create output files, fails here instead of at the very end
+		final Path[] outputPaths = new Path[digests.length];
 		if (outputPath != null)
 		{
-			// Can't write to directory, convert to a file form
-			if (Files.isDirectory(outputPath))
-				outputPath = outputPath.resolve(nameProvider());
-			
-			Files.createFile(outputPath);
+			for (int i = 0; i < digests.length; i++)
+			{
+				outputPaths[i] = outputProvider(digests[i]);
+				// The interrupted run already created it
+				if (!resume || !Files.exists(outputPaths[i]))
+					Files.createFile(outputPaths[i]);
+			}
 		}
 		
-		// If given path is a file instead of a folder/directory
-		if (Files.isRegularFile(inputPath))
-		{
-			if (verbose)
-				System.out.println("Path is actually file...");
-			new FileChecksum(inputPath, getFileChecksum(inputPath.normalize(), digest), digest.getAlgorithm()).addToBuilder(builder, inputPath, absolutePathNames);
-		} else
+		// Checksums are written out as they finish and sorted at the end, one list per algorithm
+		final ManifestWriter[] writers = new ManifestWriter[digests.length];
+		try
 		{
-			// Declare lists
-			final List<Path> paths = new ArrayList<>();
-			final List<FileChecksum> checksums;// Initialize later in case of very large directories
-			if (verbose)
-				System.out.println("Looking for files and folders...");
-			// Pre-check for files recursively
-			getAllPaths(inputPath, paths, verbose);
-			// List the files it found
-			if (verbose)
+			for (int i = 0; i < digests.length; i++)
+				writers[i] = new ManifestWriter(outputPaths[i], i, inputPath, absolutePathNames, digests[i], binary, merkle, resume);
+			// If given path is a file instead of a folder/directory
+			if (Files.isRegularFile(inputPath))
+			{
+				if (verbose)
+					System.out.println("Path is actually file...");
+				final FileChecksum checksum;
+				final long hashStart = System.nanoTime();
+				try (final Progress progress = new Progress("Hashing", !quiet))
+				{
+					progress.found(Files.size(inputPath));
+					if (treeChunk > 0)
+					{
+						final TreeHash treeHash = new TreeHash(digests[0], treeChunk * MB);
+						checksum = new FileChecksum(inputPath, treeHash.hash(inputPath.normalize(), io, threads, progress), treeHash.getAlgorithm());
+					} else
+						checksum = new FileChecksum(inputPath, getFileChecksums(inputPath.normalize(), digests, io, progress), algorithmsOf(digests));
+				}
+				Metrics.get().time(Metrics.Phase.HASH, hashStart);
+				for (ManifestWriter writer : writers)
+					writer.add(checksum);
+			} else
 			{
-				System.out.println("Found files:");
-				iterableToList(paths, System.out::println, false);
-				System.out.println("Calculating checksums...");
+				final ChecksumCache cache = cachePath != null ? ChecksumCache.load(cachePath, verbose) : null;
+				final PathFingerprints hashed = resume ? resumeWriters(writers, cache) : null;
+				if (verbose)
+					System.out.println("Looking for files and folders while calculating checksums...");
+				// Walk for files recursively while they are being hashed
+				try (final Progress progress = new Progress("Hashing", !quiet))
+				{
+					calculateFromWalk(inputPath, writers, digests, io, cache, hashed, schedule, progress, threads, verbose);
+				}
+				// Only save if everything finished, otherwise the old cache is still valid
+				if (cache != null)
+				{
+					cache.save(inputPath);
+					System.out.println("Reused " + cache.getHits() + " cached checksums and calculated " + cache.getMisses() + '.');
+				}
 			}
 			
-			/// Ready to calculate the checksums
-			// Initialize with already known size
-			checksums = new ArrayList<>(paths.size());
-			// Calculate from paths and add to checksums
-			calculateFromFiles(paths, checksums, digest, verbose);
-			// Sort based on depth then name
-			checksums.sort(Comparator.comparing(FileChecksum::getFile, Comparator.comparingInt(Path::getNameCount).reversed().thenComparing(Comparator.naturalOrder())));
-			// Accumulate the results
-			checksums.forEach(c -> c.addToBuilder(builder, inputPath, absolutePathNames));
+			/// Outside since behavior is shared between branches
+			/// Completed, print out results, export if necessary, and display time to complete
+			System.out.println("\nFinished:\n");
+			final String completeTime = timeToComplete(startTime, System.currentTimeMillis());
+			// Sort based on depth then name, printing and exporting at the same time
+			final List<Path> exported = new ArrayList<>(writers.length);
+			for (int i = 0; i < writers.length; i++)
+			{
+				if (writers.length > 1)
+					System.out.println(digests[i].getAlgorithm().toUpperCase() + ':');
+				// Quietly, the list is only printed if it isn't exported
+				final Path written = writers[i].finish(quiet && outputPath != null ? null : consoleWriter());
+				if (written != null)
+					exported.add(written);
+				System.out.println();
+			}
+			System.out.println();
+			System.out.println(completeTime);
+			for (Path written : exported)
+				System.out.println("Exported to: " + written.toAbsolutePath());
+		} finally
+		{
+			for (ManifestWriter writer : writers)
+				if (writer != null)
+					writer.close();
 		}
 		
-		/// Outside since behavior is shared between branches
-		/// Completed, print out results, export if necessary, and display time to complete
-		System.out.println("\nFinished:\n");
-		final String completeTime = timeToComplete(startTime, System.currentTimeMillis());
-		System.out.println(builder);
-		System.out.println();
-		System.out.println(completeTime);
-		if (outputPath != null)
-			System.out.println("Exported to: " + Files.write(outputPath.toAbsolutePath(), builder.toString().getBytes()));
-		
 		return 0;
 	}
 	
+	// Keep checksum lists of a directory current as its files change
+	public int watch() throws IOException
+	{
+		// Notify user
+		System.out.println("Watching path: " + inputPath.normalize().toAbsolutePath() + " with the algorithm: " + algorithmNames() + " and the output path: " + outputPath);
+		final Path[] outputPaths = new Path[digests.length];
+		for (int i = 0; i < digests.length; i++)
+			outputPaths[i] = outputProvider(digests[i]);
+		final ChecksumCache cache = cachePath != null ? ChecksumCache.load(cachePath, verbose) : null;
+		try (final Watcher watcher = new Watcher(inputPath, outputPaths, absolutePathNames, binary, merkle, digests, io, cache, threads, verbose))
+		{
+			try (final Progress progress = new Progress("Hashing", !quiet))
+			{
+				watcher.scan(progress);
+			}
+			watcher.flush();
+			System.out.println(timeToComplete(startTime, System.currentTimeMillis()));
+			for (Path written : outputPaths)
+				System.out.println("Exported to: " + written.toAbsolutePath());
+			System.out.println("Waiting for changes, enter verify [path], flush, status, or quit...");
+			watcher.run(System.in, TimeUnit.SECONDS.toMillis(debounce), TimeUnit.SECONDS.toMillis(flushInterval));
+		}
+		System.out.println("Stopped watching.");
+		return 0;
+	}
+	
+	/**
+	 * Keep the checksums every list of the interrupted run has, so only the rest are calculated.
+	 * <br>
+	 * The lists are merged by name from their sorted runs, so only the files to skip are kept in memory, as fingerprints.
+	 * @param writers The writers, which have read their partial lists.
+	 * @param cache Keeps the cached checksums of the files to skip, may be null.
+	 * @return The files to skip, as normalized absolute paths.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private PathFingerprints resumeWriters(ManifestWriter[] writers, ChecksumCache cache) throws IOException
+	{
+		final PathFingerprints hashed = new PathFingerprints();
+		final ManifestWriter.Resumed[] lists = new ManifestWriter.Resumed[writers.length];
+		try
+		{
+			boolean more = true;
+			for (int i = 0; i < writers.length; i++)
+			{
+				lists[i] = writers[i].openResumed();
+				more &= lists[i] != null && lists[i].advance();
+			}
+			final Path root = inputPath.toAbsolutePath();
+			// A file is only done once it's in every list, the last ones may not have been written to all of them
+			while (more)
+			{
+				Path highest = lists[0].getFile();
+				for (ManifestWriter.Resumed list : lists)
+					if (MANIFEST_ORDER.compare(list.getFile(), highest) > 0)
+						highest = list.getFile();
+				boolean everyList = true;
+				for (int i = 0; i < lists.length && more; i++)
+				{
+					while (more && MANIFEST_ORDER.compare(lists[i].getFile(), highest) < 0)
+						more = lists[i].advance();
+					everyList &= more && lists[i].getFile().equals(highest);
+				}
+				if (!everyList)
+					continue;
+				for (int i = 0; i < lists.length; i++)
+					writers[i].resume(lists[i].getFile(), lists[i].getLine());
+				final Path file = root.resolve(highest).normalize();
+				hashed.add(file);
+				// Not looked up since they aren't hashed, but still under the input path
+				if (cache != null)
+					cache.keep(file);
+				for (ManifestWriter.Resumed list : lists)
+					more &= list.advance();
+			}
+		} finally
+		{
+			for (ManifestWriter.Resumed list : lists)
+				if (list != null)
+					list.close();
+		}
+		System.out.println("Resuming with " + hashed.size() + " files already hashed.");
+		return hashed;
+	}
+	
 	// Check a list of checksums, generated either by this program or by the GNU utilities checksum programs
 	public int checkSum() throws IOException
 	{
 		// Notify user
-		System.out.println("Recognized path as: " + inputPath.normalize().toAbsolutePath() + " and algorithm as: " + digest.getAlgorithm().toUpperCase() + ", and is in check mode.");
+		System.out.println("Recognized path as: " + inputPath.normalize().toAbsolutePath() + " and algorithm as: " + algorithmNames() + ", and is in check mode.");
 		System.out.println("Beginning to check...");
 		
-		// Declare lists and map in preparation for checks
-		// Ordered paths is the order encountered in the list, failed paths for failed checksums, missing paths for files/directories not found
-		final List<Path> orderedPaths = new ArrayList<>(), failedPaths = new ArrayList<>(), missingPaths = new ArrayList<>();
+		// Binary lists record their algorithm, use it instead of the selected one
+		final BinaryManifest binaryManifest = BinaryManifest.isBinary(inputPath) ? BinaryManifest.open(inputPath) : null;
+		MessageDigest digest = digests[0];
+		if (binaryManifest != null)
+		{
+			if (verbose)
+				System.out.println("Binary checksum list of: " + binaryManifest.getRoot() + " with " + binaryManifest.getCount() + " entries.");
+			if (!binaryManifest.getAlgorithm().equalsIgnoreCase(digest.getAlgorithm()))
+			{
+				try
+				{
+					digest = MessageDigest.getInstance(binaryManifest.getAlgorithm());
+				} catch (NoSuchAlgorithmException e)
+				{
+					System.err.println("Checksum list was made with an unavailable algorithm: " + binaryManifest.getAlgorithm());
+					return 2;
+				}
+				System.out.println("Using the checksum list's algorithm: " + binaryManifest.getAlgorithm().toUpperCase());
+			}
+		}
+		
+		// Declare lists to track problems, only as long as the number of problems
+		// Failed paths for failed checksums, missing paths for files/directories not found, unlisted paths for selected paths not in the list
+		final List<Path> failedPaths = new ArrayList<>(), missingPaths = new ArrayList<>(), unlistedPaths = new ArrayList<>();
 		// Improperly formatted lines
 		final List<String> badFormats = new ArrayList<>();
-		// For quick lookup of checksums given path
-		final Map<Path, String> sumMap = new HashMap<>();
 		
-		// Different output file format, give header with basic statistics
-		builder.append(" --- Checksum integrity report using ").append(inputPath).append(" on ").append(LocalDateTime.now()).append(" ---\n\n");
+		// Stream the report to the log file if exporting, otherwise straight to the console
+		final Path reportPath = outputPath != null ? outputPath.normalize().toAbsolutePath().resolve("checksum_report.log") : null;
+		try (final Writer report = reportPath != null ? Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8) : consoleWriter();
+				final ManifestSource source = openManifest(binaryManifest, unlistedPaths))
+		{
+			// Different output file format, give header with basic statistics
+			report.append(" --- Checksum integrity report using ").append(inputPath.toString()).append(" on ").append(LocalDateTime.now().toString()).append(" ---\n\n");
+			
+			// Parse and check one line at a time, only repeating each result on the console if the report isn't already going there
+			final boolean stoppedEarly;
+			try (final Progress progress = new Progress("Checking", !quiet))
+			{
+				stoppedEarly = checkFromManifest(source, digest, io, threads, failFast ? 1 : maxFailures, report, reportPath != null && !quiet, progress, verbose, failedPaths, missingPaths, badFormats);
+			}
+			
+			// Report and log any tracked errors, the lists are only as long as the number of problems
+			final StringBuilder summary = new StringBuilder();
+			if (failedPaths.isEmpty())
+				summary.append("\nNo failed checksums detected.\n");
+			else
+			{
+				summary.append("\nDetected ").append(failedPaths.size()).append(" failed files!\n");
+				iterableToList(failedPaths, summary::append, true);
+			}
+			if (stoppedEarly)
+				summary.append("\nStopped early after reaching the failure limit, the remaining entries were not checked!\n");
+			if (!missingPaths.isEmpty())
+			{
+				summary.append("\nDetected ").append(missingPaths.size()).append(" missing files!\n");
+				iterableToList(missingPaths, summary::append, true);
+			}
+			if (!badFormats.isEmpty())
+			{
+				summary.append("\nDetected ").append(badFormats.size()).append(" improperly formatted lines!\n");
+				iterableToList(badFormats, summary::append, true);
+			}
+			if (!unlistedPaths.isEmpty())
+			{
+				summary.append("\nDetected ").append(unlistedPaths.size()).append(" paths not in the checksum list!\n");
+				iterableToList(unlistedPaths, summary::append, true);
+			}
+			
+			/// Completed
+			final String completeTime = timeToComplete(startTime, System.currentTimeMillis());
+			summary.append('\n').append(completeTime);
+			report.append(summary).append('\n');
+			report.flush();
+			System.out.println("\nFinished\n");
+			if (reportPath != null)
+			{
+				System.out.println(summary);
+				System.out.println("Exported to: " + reportPath);
+			}
+			return stoppedEarly ? 3 : 0;
+		}
+	}
+	
+	// Open the entries to check, only the selected ones if any
+	private ManifestSource openManifest(BinaryManifest binaryManifest, List<Path> unlistedPaths) throws IOException
+	{
+		if (binaryManifest != null)
+			return onlyPaths != null ? binaryManifest.select(onlyPaths, unlistedPaths) : binaryManifest.entries();
+		final ManifestReader reader = new ManifestReader(inputPath);
+		return onlyPaths != null ? ManifestSource.filter(reader, onlyPaths, unlistedPaths) : reader;
+	}
+	
+	// Convert a checksum list between the text and binary formats
+	public int convert() throws IOException
+	{
+		final boolean fromBinary = BinaryManifest.isBinary(inputPath);
+		System.out.println("Converting checksum list: " + inputPath.normalize().toAbsolutePath() + " to the " + (fromBinary ? "text" : "binary") + " format.");
+		// Swap the binary extension
+		final String name = inputPath.getFileName().toString(), extension = BinaryManifest.EXTENSION;
+		final String convertedName = !fromBinary ? name + extension : name.endsWith(extension) && name.length() > extension.length() ? name.substring(0, name.length() - extension.length()) : name + ".txt";
+		final Path output = outputPath == null ? inputPath.resolveSibling(convertedName) : Files.isDirectory(outputPath) ? outputPath.resolve(convertedName) : outputPath;
+		Files.createFile(output);// Fails here instead of overwriting
 		
-		// Accumulate all lines in file and pass tracking lists for parsing
-		parseSumFile(Files.lines(inputPath).collect(ArrayList::new, List::add, List::addAll), orderedPaths, sumMap, missingPaths, badFormats, builder, verbose);
-		// Begin checks
-		checkFromFiles(orderedPaths, sumMap, digest, builder, verbose, failedPaths);
+		final long count;
+		try
+		{
+			if (fromBinary)
+			{
+				try (final Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8))
+				{
+					count = BinaryManifest.open(inputPath).toText(writer);
+				}
+			} else
+			{
+				final List<String> badFormats = new ArrayList<>();
+				count = BinaryManifest.fromText(inputPath, output, digests[0], badFormats);
+				if (!badFormats.isEmpty())
+				{
+					System.err.println("Left out " + badFormats.size() + " improperly formatted lines:");
+					iterableToList(badFormats, System.err::print, true);
+				}
+			}
+		} catch (IOException e)
+		{
+			// Don't leave half a list behind
+			Files.deleteIfExists(output);
+			throw e;
+		}
 		
-		// Report and log any tracked errors
-		if (failedPaths.isEmpty())
-			builder.append("\nNo failed checksums detected.\n");
-		else
+		System.out.println("Converted " + count + " entries.");
+		System.out.println(timeToComplete(startTime, System.currentTimeMillis()));
+		System.out.println("Exported to: " + output.toAbsolutePath());
+		return 0;
+	}
+	
+	// Compare a checksum list with a newer one, or with a directory
+	public int diff() throws IOException
+	{
+		// Binary lists record their algorithm, a directory has to be hashed with the same one
+		final BinaryManifest oldBinary = BinaryManifest.isBinary(inputPath) ? BinaryManifest.open(inputPath) : null;
+		MessageDigest digest = digests[0];
+		if (oldBinary != null && !oldBinary.getAlgorithm().equalsIgnoreCase(digest.getAlgorithm()))
 		{
-			builder.append("\nDetected ").append(failedPaths.size()).append(" failed files!\n");
-			iterableToList(failedPaths, builder::append, true);
+			try
+			{
+				digest = MessageDigest.getInstance(oldBinary.getAlgorithm());
+			} catch (NoSuchAlgorithmException e)
+			{
+				System.err.println("Checksum list was made with an unavailable algorithm: " + oldBinary.getAlgorithm());
+				return 2;
+			}
 		}
-		if (!missingPaths.isEmpty())
+		final boolean live = Files.isDirectory(diffPath);
+		System.out.println("Comparing checksum list: " + inputPath.normalize().toAbsolutePath() + " with " + (live ? "the files in: " : "the checksum list: ") + diffPath.normalize().toAbsolutePath() + " using the algorithm: " + digest.getAlgorithm().toUpperCase());
+		
+		final Path reportPath = outputPath != null ? outputPath.normalize().toAbsolutePath().resolve("diff_report.log") : null;
+		// The current state of a directory is written to a temporary list first, which is in the same order
+		final Path liveManifest = live ? Files.createTempFile("pathsum-diff", ".tmp") : null;
+		// With directory digests in the old list, the temporary one gets them too so unchanged directories can be skipped
+		final ManifestEntry oldRoot = oldBinary != null ? oldBinary.getLast() : null;
+		final boolean liveTree = live && oldRoot != null && oldRoot.isDirectory();
+		try
 		{
-			builder.append("\nDetected ").append(missingPaths.size()).append(" missing files!\n");
-			iterableToList(missingPaths, builder::append, true);
+			if (live)
+			{
+				final ChecksumCache cache = cachePath != null ? ChecksumCache.load(cachePath, verbose) : null;
+				try (final ManifestWriter writer = new ManifestWriter(liveManifest, 0, diffPath, absolutePathNames, digest, liveTree, liveTree, false);
+						final Progress progress = new Progress("Hashing", !quiet))
+				{
+					calculateFromWalk(diffPath, new ManifestWriter[] {writer}, new MessageDigest[] {digest}, io, cache, null, schedule, progress, threads, verbose);
+					writer.finish(null);
+				}
+				// Entries outside the compared directory are kept for other runs
+				if (cache != null)
+					cache.save(diffPath);
+			}
+			final Path newPath = live ? liveManifest : diffPath;
+			final BinaryManifest newBinary = (!live || liveTree) && BinaryManifest.isBinary(newPath) ? BinaryManifest.open(newPath) : null;
+			if (oldBinary != null && newBinary != null && !oldBinary.getAlgorithm().equalsIgnoreCase(newBinary.getAlgorithm()))
+			{
+				System.err.println("Checksum lists use different algorithms, " + oldBinary.getAlgorithm() + " and " + newBinary.getAlgorithm() + ", and can't be compared!");
+				return 2;
+			}
+			try (final Writer report = reportPath != null ? Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8) : consoleWriter();
+					final ManifestSource before = oldBinary != null ? oldBinary.entries() : new ManifestReader(inputPath);
+					final ManifestSource after = newBinary != null ? newBinary.entries() : new ManifestReader(newPath))
+			{
+				final ManifestDiff diff = new ManifestDiff(report);
+				// Only directories that differ are read when both lists have directory digests
+				if (oldBinary == null || newBinary == null || !diff.compareTrees(oldBinary, newBinary))
+					diff.compare(before, after);
+				
+				final StringBuilder summary = new StringBuilder();
+				summary.append('\n').append(diff.getAdded()).append(" added, ").append(diff.getRemoved()).append(" removed, ").append(diff.getModified())
+						.append(" modified, ").append(diff.getRenamed()).append(" renamed, and ").append(diff.getUnchanged()).append(" unchanged files");
+				// Files under a skipped directory aren't read, so they aren't in the unchanged count
+				if (diff.getSkippedDirectories() > 0)
+					summary.append(", not counting the files in ").append(diff.getSkippedDirectories()).append(" skipped unchanged directories");
+				summary.append(".\n");
+				if (diff.getBadFormats() > 0)
+					summary.append("Skipped ").append(diff.getBadFormats()).append(" improperly formatted lines.\n");
+				summary.append('\n').append(timeToComplete(startTime, System.currentTimeMillis()));
+				report.append(summary).append('\n');
+				report.flush();
+				System.out.println("\nFinished\n");
+				if (reportPath != null)
+				{
+					System.out.println(summary);
+					System.out.println("Exported to: " + reportPath);
+				}
+				return diff.hasDifferences() ? 4 : 0;
+			}
+		} finally
+		{
+			if (liveManifest != null)
+				Files.deleteIfExists(liveManifest);
 		}
-		if (!badFormats.isEmpty())
+	}
+	
+	// Find duplicate files and report them
+	public int dedupe() throws IOException
+	{
+		System.out.println("Looking for duplicate files in: " + inputPath.normalize().toAbsolutePath() + " using the algorithm: " + digests[0].getAlgorithm().toUpperCase());
+		// Try to initially create the report, fails here instead of at the very end
+		final Path reportPath = outputPath == null ? null : Files.isDirectory(outputPath) ? outputPath.resolve(inputPath.normalize().toAbsolutePath().getFileName() + ".duplicates.json") : outputPath;
+		if (reportPath != null)
+			Files.createFile(reportPath);
+		
+		final ChecksumCache cache = cachePath != null ? ChecksumCache.load(cachePath, verbose) : null;
+		final DuplicateFinder finder = new DuplicateFinder(digests[0], io, cache, threads, verbose);
+		final List<DuplicateFinder.Group> groups = finder.find(inputPath);
+		// Files ruled out by size or by their first and last bytes are never looked up, their entries are kept
+		if (cache != null)
+			cache.save(null);
+		try (final JsonWriter json = new JsonWriter(reportPath != null ? Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8) : consoleWriter()))
 		{
-			builder.append("\nDetected ").append(badFormats.size()).append(" improperly formatted lines!\n");
-			iterableToList(badFormats, builder::append, true);
+			finder.writeReport(json, groups, inputPath, absolutePathNames);
 		}
 		
-		/// Completed
+		long duplicates = 0, reclaimable = 0;
+		for (DuplicateFinder.Group group : groups)
+		{
+			duplicates += group.getPaths().size() - 1;
+			reclaimable += group.getReclaimable();
+		}
 		System.out.println("\nFinished\n");
-		final String completeTime = timeToComplete(startTime, System.currentTimeMillis());
-		builder.append('\n').append(completeTime);
-		System.out.println(builder);
-		if (outputPath != null)
-			System.out.println("Exported to: " + Files.write(Paths.get(outputPath.normalize().toAbsolutePath().toString(), "checksum_report.log"), builder.toString().getBytes()));
-		
+		System.out.println("Found " + groups.size() + " groups of identical files in " + finder.getFiles() + " files, removing " + duplicates + " duplicates would reclaim " + reclaimable + " bytes.");
+		System.out.println("Fully hashed " + finder.getBytesHashed() + " bytes.");
+		System.out.println(timeToComplete(startTime, System.currentTimeMillis()));
+		if (reportPath != null)
+			System.out.println("Exported to: " + reportPath.toAbsolutePath());
 		return 0;
 	}
 	
@@ -190,23 +596,157 @@ public class Main implements Callable<Integer>
 	public Integer call() throws Exception
 	{
 		startTime = System.currentTimeMillis();
-		return checkMode ? checkSum() : createSum();
+		if (threads < 1)
+		{
+			System.err.println("Thread count must be at least 1, was given: " + threads);
+			return 2;
+		}
+		if (digests.length > 1 && (checkMode || treeChunk > 0))
+		{
+			System.err.println("Only a single algorithm can be used when checking or making a tree hash, was given: " + algorithmNames());
+			return 2;
+		}
+		if (maxBandwidth < 0 || maxBandwidth > Long.MAX_VALUE / MB)
+		{
+			System.err.println("Bandwidth limit must be a positive number of MB per second, was given: " + maxBandwidth);
+			return 2;
+		}
+		if (inFlight < 0)
+		{
+			System.err.println("Reads in flight can't be negative, was given: " + inFlight);
+			return 2;
+		}
+		for (Map.Entry<Path, Integer> entry : deviceThreads.entrySet())
+		{
+			if (entry.getValue() < 1)
+			{
+				System.err.println("Files read at once must be at least 1, was given: " + entry.getValue() + " for " + entry.getKey());
+				return 2;
+			}
+		}
+		if (quiet && verbose)
+		{
+			System.err.println("Can't be both quiet and verbose!");
+			return 2;
+		}
+		if (maxFailures < 0)
+		{
+			System.err.println("Failure limit can't be negative, was given: " + maxFailures);
+			return 2;
+		}
+		if (treeChunk < 0 || treeChunk > Integer.MAX_VALUE / MB)
+		{
+			System.err.println("Tree chunk size must be between 1 and " + Integer.MAX_VALUE / MB + " MB, was given: " + treeChunk);
+			return 2;
+		}
+		if (convert && checkMode)
+		{
+			System.err.println("Can't convert and check a checksum list at the same time!");
+			return 2;
+		}
+		if (onlyPaths != null && !checkMode)
+		{
+			System.err.println("Selecting paths with --only only applies when checking!");
+			return 2;
+		}
+		if (diffPath != null && (checkMode || convert))
+		{
+			System.err.println("Can't compare checksum lists while also checking or converting!");
+			return 2;
+		}
+		if (dedupe && (checkMode || convert || diffPath != null || !Files.isDirectory(inputPath)))
+		{
+			System.err.println("Looking for duplicates only works on a directory, and not while checking, converting, or comparing!");
+			return 2;
+		}
+		if (merkle && (checkMode || convert || diffPath != null || dedupe))
+		{
+			System.err.println("Directory digests are only added when making a checksum list!");
+			return 2;
+		}
+		if (resume && (outputPath == null || checkMode || convert || diffPath != null || dedupe))
+		{
+			System.err.println("Only making a checksum list with an export path can be resumed!");
+			return 2;
+		}
+		if (watch && (outputPath == null || !Files.isDirectory(inputPath) || checkMode || convert || diffPath != null || dedupe || resume))
+		{
+			System.err.println("Only making a checksum list of a directory with an export path can be watched!");
+			return 2;
+		}
+		if (debounce < 0 || flushInterval < 1)
+		{
+			System.err.println("Debounce time can't be negative and the flush interval must be at least a second, was given: " + debounce + " and " + flushInterval);
+			return 2;
+		}
+		try
+		{
+			IOLimiter.install(new IOLimiter(deviceThreads, spinningDisks, maxBandwidth * MB, inFlight, threads));
+		} catch (IOException e)
+		{
+			System.err.println("Unable to find the device of a path given to --device-threads: " + e);
+			return 2;
+		}
+		final Metrics metrics = new Metrics();
+		Metrics.install(metrics);
+		if (prometheusPath != null)
+			metrics.export(prometheusPath);
+		final int exitCode;
+		try
+		{
+			exitCode = checkMode ? checkSum() : convert ? convert() : diffPath != null ? diff() : dedupe ? dedupe() : watch ? watch() : createSum();
+		} finally
+		{
+			metrics.stop();
+		}
+		if (metricsPath != null)
+		{
+			metrics.writeSummary(metricsPath, checkMode ? "check" : convert ? "convert" : diffPath != null ? "diff" : dedupe ? "dedupe" : watch ? "watch" : "create", exitCode);
+			System.out.println("Metrics written to: " + metricsPath.toAbsolutePath());
+		}
+		return exitCode;
+	}
+	
+	// Console writer that leaves System.out open when closed
+	private static Writer consoleWriter()
+	{
+		return new BufferedWriter(new OutputStreamWriter(System.out))
+		{
+			@Override
+			public void close() throws IOException
+			{
+				flush();
+			}
+		};
+	}
+	
+	// Get the output file for an algorithm
+	private Path outputProvider(MessageDigest digest)
+	{
+		// Can't write to directory, convert to a file form
+		final String binaryExtension = binary ? BinaryManifest.EXTENSION : "";
+		if (Files.isDirectory(outputPath))
+			return outputPath.resolve(nameProvider(digest) + binaryExtension);
+		// Several lists can't share one name, use it as the base name instead
+		return digests.length > 1 ? outputPath.resolveSibling(outputPath.getFileName().toString() + '.' + extensionProvider(digest) + binaryExtension) : outputPath;
 	}
 	
 	// Get name of output file
-	private String nameProvider()
+	private String nameProvider(MessageDigest digest)
 	{
 		if (outputPath != null)
-			return Files.isDirectory(outputPath) ? inputPath.normalize().getFileName().toString() + '.' + extensionProvider() : outputPath.getFileName().toString();
+			return Files.isDirectory(outputPath) ? inputPath.normalize().getFileName().toString() + '.' + extensionProvider(digest) : outputPath.getFileName().toString();
 		else
-			return inputPath.normalize().toAbsolutePath().getFileName().toString() + '.' + extensionProvider();
+			return inputPath.normalize().toAbsolutePath().getFileName().toString() + '.' + extensionProvider(digest);
 			
 	}
 	
 	// Get name of file extension, given digest algorithm
-	private String extensionProvider()
+	private String extensionProvider(MessageDigest digest)
 	{
 		final StringBuilder builder = new StringBuilder(digest.getAlgorithm());
+		if (treeChunk > 0 && Files.isRegularFile(inputPath))
+			builder.insert(0, TreeHash.PREFIX);// Tree hashes can't be checked by other tools, mark them
 		final int dashIndex = builder.indexOf("-");// Remove any dash
 		if (dashIndex > 0)
 			builder.deleteCharAt(dashIndex);
@@ -216,16 +756,30 @@ public class Main implements Callable<Integer>
 		return builder.toString().toLowerCase();
 	}
 	
+	// All selected algorithms for printing
+	private String algorithmNames()
+	{
+		return String.join(", ", algorithmsOf(digests)).toUpperCase();
+	}
+	
 	//// Entry point ////
 	public static void main(String[] args)
 	{
+		FastHashProvider.install();// Before parsing, so the fast hashes can be selected like any other algorithm
 		final CommandLine commandLine = new CommandLine(new Main());
+		commandLine.setCaseInsensitiveEnumValuesAllowed(true);
 		commandLine.registerConverter(MessageDigest.class, MessageDigest::getInstance);// Register automatic digest algorithm getter
 		final int exitCode = commandLine.execute(args);
 		System.out.println("\nExited with code: " + exitCode);
 		System.exit(exitCode);
 	}
 
+	// Number of names in a path, where the empty path of a relative root has none and so sorts last
+	static int depth(Path path)
+	{
+		return path.toString().isEmpty() ? 0 : path.getNameCount();
+	}
+	
 	// Convenience method
 	private static String timeToComplete(long startTime, long completiontime)
 	{
@@ -233,110 +787,194 @@ public class Main implements Callable<Integer>
 	}
 	
 	/**
-	 * Check the files' current checksum against stored checksum.
-	 * @param files Sorted list of files.
-	 * @param sumMap Map of stored files and checksums.
+	 * Parse the summary while checking the files' current checksum against the stored checksum.
+	 * @param source The summary being read.
 	 * @param digest Selected digest algorithm instance.
-	 * @param builder The {@code StringBuilder} for persistent log.
+	 * @param io How the files should be read.
+	 * @param threads Number of files to hash at once.
+	 * @param maxFailures Number of failed checksums to stop after, 0 to never stop early.
+	 * @param report The persistent log.
+	 * @param printResults If each result should also be printed to the console.
+	 * @param progress Counts the files checked.
 	 * @param verbose If extra console printing should be enabled.
 	 * @param failedPaths List of paths with failed checksum matches.
-	 * @throws IOException If any I/O exception occurs.
-	 */
-	private static void checkFromFiles(List<Path> files, Map<Path, String> sumMap, MessageDigest digest, StringBuilder builder, boolean verbose, List<Path> failedPaths) throws IOException
-	{
-		for (int i = 0; i < files.size(); i++)
-		{
-			// Convenience variables
-			final Path file = files.get(i).normalize();// Normalize to remove redundancies that may be confusing to read
-			final int count = i + 1;
-			// Notify user
-			if (verbose)
-			{
-				System.out.println("Checking checksum of: [" + file + ']');
-				System.out.println("File #" + count + '/' + files.size());
-			}
-			
-			// Get current and stored hashes
-			final String hexHash = bytesToHex(true, getFileChecksum(file, digest)), storedHash = sumMap.get(file);
-			// Check if equivalent and if valid
-			final boolean success = hexHash.equalsIgnoreCase(storedHash), valid = hexHash.length() == storedHash.length();
-			// Notify of result, regardless of verbosity
-			System.out.println(file.toString() + ' ' + (success ? "OK" : "FAILED"));
-			// Notify user if possibly wrong checksum used, if verbose and applicable
-			if (verbose && !valid)
-				System.err.println("Possibly wrong algorithm used. Calculated hash is: " + hexHash.length() + " characters long while stored hash is: " + storedHash.length() + " characters long.");
-			
-			// Log persistently
-			builder.append('[').append(file).append(']').append(success ? " passed." : " failed!").append('\n');
-			if (!valid)
-				builder.append("Possibly wrong algorithm used. Calculated hash is: ").append(hexHash.length()).append(" characters long while stored hash is: ").append(storedHash.length()).append(" characters long.");
-			if (!success)
-				failedPaths.add(file);
-		}
-	}
-	
-	/**
-	 * Parse the summary into the provided lists and track errors.
-	 * @param lines The input lines.
-	 * @param orderedFiles The parsed paths in order of the list.
-	 * @param sumMap Convert the summary into a map.
 	 * @param missingPaths Any paths not found.
 	 * @param badFormats Improperly formatted lines.
-	 * @param builder The {@code StringBuilder} for the persistent log.
-	 * @param verbose If extra console printing should be enabled.
+	 * @return True, if stopped early because of the failure limit.
+	 * @throws IOException If any I/O exception occurs.
 	 */
-	private static void parseSumFile(List<String> lines, List<Path> orderedFiles, Map<Path, String> sumMap, List<Path> missingPaths, List<String> badFormats, StringBuilder builder, boolean verbose)
+	private static boolean checkFromManifest(ManifestSource source, MessageDigest digest, IOStrategy io, int threads, int maxFailures, Writer report, boolean printResults, Progress progress, boolean verbose, List<Path> failedPaths, List<Path> missingPaths, List<String> badFormats) throws IOException
 	{
 		// Notify user of stage
-		System.out.println("Parsing summary file...");
-		// Track line count while using for-each loop
-		for (int lineNum = 0; lineNum < lines.size(); lineNum++)
+		System.out.println("Parsing and checking summary file...");
+		// If parallel, entries are hashed in the background while results are reported in list order from the front of the window
+		final int inFlight = IOLimiter.get().getInFlight();
+		final ExecutorService pool = inFlight > 0 ? VirtualThreads.newExecutor("checker", inFlight) : threads > 1 ? Executors.newWorkStealingPool(threads) : null;
+		final int window = inFlight > 0 ? inFlight : threads * CHECK_WINDOW;
+		final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> cloneDigest(digest));
+		final Metrics metrics = Metrics.get();
+		final long hashStart = System.nanoTime();
+		final Deque<ManifestEntry> pendingEntries = new ArrayDeque<>();
+		final Deque<Future<byte[]>> pendingHashes = new ArrayDeque<>();
+		int count = 0;
+		boolean stop = false;
+		try
 		{
-			// Convenience
-			final String checksumLine = lines.get(lineNum);
-			try
+			ManifestEntry entry;
+			while (!stop)
 			{
-				// Try to find the double-space break index delimiting the checksum from the path
-				final int breakIndex = checksumLine.indexOf("  ");
-				// Split the checksum and path from each other
-				final String storedHash = checksumLine.substring(0, breakIndex).toLowerCase();
-				final Path filePath = Paths.get(checksumLine.substring(breakIndex + 2)).normalize();
-				
-				// Check if the hash has valid chars, note and skip if fails
-				if (!validHash(storedHash))
+				// Parsing is timed on its own, the checksums are calculated in the background meanwhile
+				final long parseStart = System.nanoTime();
+				entry = source.next();
+				metrics.time(Metrics.Phase.PARSE, parseStart);
+				if (entry == null)
+					break;
+				// Note and skip improperly formatted lines, and ones tagged with another algorithm, which can't be checked
+				if (!entry.isValid() || !entry.isFor(digest.getAlgorithm()))
+				{
+					noteBadFormat(verbose, entry.getLine(), entry.getLineNumber(), badFormats, report);
+					continue;
+				}
+				// Directory digests only summarize the files that are checked anyway
+				if (entry.isDirectory())
 				{
-					noteBadFormat(verbose, checksumLine, lineNum + 1, badFormats, builder);
+					if (verbose)
+						System.out.println("Skipping directory digest of: [" + entry.getFile() + ']');
 					continue;
 				}
 				
-				// Check if exists, add to list and map if so, note if not
-				if (Files.exists(filePath))
+				if (pool == null)
 				{
-					orderedFiles.add(filePath);
-					sumMap.put(filePath, storedHash);
+					// Check if exists, note if not, the size is only for the progress
+					final BasicFileAttributes attributes = readAttributes(entry.getFile());
+					if (attributes == null)
+					{
+						noteMissing(entry, verbose, missingPaths);
+						continue;
+					}
+					count++;
+					progress.found(attributes.size());
+					// Notify user
+					if (verbose)
+					{
+						System.out.println("Checking checksum of: [" + entry.getFile() + ']');
+						System.out.println("File #" + count);
+					}
+					stop = reportCheck(entry, getStoredChecksum(entry, digest, io, threads, progress), report, printResults, verbose, failedPaths, maxFailures);
 				} else
 				{
-					if (verbose)
-						System.err.println(filePath + " NOT FOUND");
-//					builder.append(filePath).append(" is missing!").append('\n');
-					missingPaths.add(filePath);
+					final ManifestEntry submitted = entry;
+					pendingEntries.add(entry);
+					pendingHashes.add(pool.submit(() ->
+					{
+						// Checking if it exists waits on the file system as well, no checksum if it doesn't
+						final BasicFileAttributes attributes = readAttributes(submitted.getFile());
+						if (attributes == null)
+							return null;
+						progress.found(attributes.size());
+						if (verbose)
+							System.out.println("Checking checksum of: [" + submitted.getFile() + ']');
+						return getStoredChecksum(submitted, digests.get(), io, threads, progress);
+					}));
+					// Window is full, wait for the oldest
+					if (pendingHashes.size() >= window)
+						stop = reportOldest(pendingEntries, pendingHashes, report, printResults, verbose, failedPaths, missingPaths, maxFailures);
 				}
-			} catch (StringIndexOutOfBoundsException e)// In case delimiter couldn't be found
-			{
-				noteBadFormat(verbose, checksumLine, lineNum + 1, badFormats, builder);
 			}
+			// Drain the rest of the window
+			while (!stop && !pendingHashes.isEmpty())
+				stop = reportOldest(pendingEntries, pendingHashes, report, printResults, verbose, failedPaths, missingPaths, maxFailures);
+		} finally
+		{
+			// Also cancels anything left in the window after stopping early
+			if (pool != null)
+				pool.shutdownNow();
+			metrics.time(Metrics.Phase.HASH, hashStart);
+		}
+		return stop;
+	}
+	
+	/**
+	 * Wait for the oldest entry of the window and report it.
+	 * @param pendingEntries Entries of the window, in list order.
+	 * @param pendingHashes Their checksums being calculated, null if the file doesn't exist.
+	 * @param report The persistent log.
+	 * @param printResults If the result should also be printed to the console.
+	 * @param verbose If extra console printing should be enabled.
+	 * @param failedPaths List of paths with failed checksum matches.
+	 * @param missingPaths List of paths that don't exist.
+	 * @param maxFailures Number of failed checksums to stop after, 0 to never stop early.
+	 * @return True, if the failure limit has been reached.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private static boolean reportOldest(Deque<ManifestEntry> pendingEntries, Deque<Future<byte[]>> pendingHashes, Writer report, boolean printResults, boolean verbose, List<Path> failedPaths, List<Path> missingPaths, int maxFailures) throws IOException
+	{
+		final ManifestEntry entry = pendingEntries.poll();
+		final byte[] hash = waitFor(pendingHashes.poll());
+		if (hash != null)
+			return reportCheck(entry, hash, report, printResults, verbose, failedPaths, maxFailures);
+		noteMissing(entry, verbose, missingPaths);
+		return false;
+	}
+	
+	// Note an entry whose file doesn't exist
+	private static void noteMissing(ManifestEntry entry, boolean verbose, List<Path> missingPaths)
+	{
+		if (verbose)
+			System.err.println(entry.getFile() + " NOT FOUND");
+		missingPaths.add(entry.getFile());
+	}
+	
+	/**
+	 * Compare and report the result of checking a single entry.
+	 * @param entry The stored entry.
+	 * @param hash The file's current checksum.
+	 * @param report The persistent log.
+	 * @param printResults If the result should also be printed to the console.
+	 * @param verbose If extra console printing should be enabled.
+	 * @param failedPaths List of paths with failed checksum matches.
+	 * @param maxFailures Number of failed checksums to stop after, 0 to never stop early.
+	 * @return True, if the failure limit has been reached.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private static boolean reportCheck(ManifestEntry entry, byte[] hash, Writer report, boolean printResults, boolean verbose, List<Path> failedPaths, int maxFailures) throws IOException
+	{
+		// Convenience variables
+		final Path file = entry.getFile();
+		final byte[] storedHash = entry.getHash();
+		// Check if equivalent and if valid
+		final boolean success = MessageDigest.isEqual(hash, storedHash), valid = hash.length == storedHash.length;
+		// Notify of result, regardless of verbosity
+		if (printResults)
+			System.out.println(file.toString() + ' ' + (success ? "OK" : "FAILED"));
+		// Notify user if possibly wrong checksum used, if verbose and applicable
+		if (verbose && !valid)
+			System.err.println("Possibly wrong algorithm used. Calculated hash is: " + hash.length * 2 + " characters long while stored hash is: " + storedHash.length * 2 + " characters long.");
+		
+		// Log persistently
+		report.append('[').append(file.toString()).append(']').append(success ? " passed." : " failed!").append('\n');
+		if (!valid)
+			report.append("Possibly wrong algorithm used. Calculated hash is: ").append(String.valueOf(hash.length * 2)).append(" characters long while stored hash is: ").append(String.valueOf(storedHash.length * 2)).append(" characters long.\n");
+		if (!success)
+		{
+			failedPaths.add(file);
+			// Push out the failure now, something may be waiting on it
+			report.flush();
 		}
+		return maxFailures > 0 && failedPaths.size() >= maxFailures;
 	}
 	
 	/**
 	 * Checks if a checksum is valid.
 	 * @param hash The string to check.
-	 * @return True, if the string contains only 0-9 or a-f characters, false otherwise.
+	 * @param start Index of the checksum's first character.
+	 * @param end Index after the checksum's last character.
+	 * @return True, if the checksum contains only 0-9 or a-f characters in either case, false otherwise.
 	 */
-	private static boolean validHash(String hash)
+	static boolean validHash(CharSequence hash, int start, int end)
 	{
-		for (char c : hash.toLowerCase().toCharArray())
-			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+		for (int i = start; i < end; i++)
+			if (hexValue(hash.charAt(i)) < 0)
 				return false;
 		return true;
 	}
@@ -347,69 +985,316 @@ public class Main implements Callable<Integer>
 	 * @param checksumLine The failed line.
 	 * @param lineNum The line # with the error.
 	 * @param badFormats The tracking list to add to.
-	 * @param builder The persistent log.
+	 * @param report The persistent log.
 	 */
-	private static void noteBadFormat(boolean verbose, String checksumLine, int lineNum, List<String> badFormats, StringBuilder builder)
+	private static void noteBadFormat(boolean verbose, String checksumLine, long lineNum, List<String> badFormats, Writer report)
 	{
 		if (verbose)
 			System.err.println("Improperly formatted line detected: " + checksumLine);
-//		builder.append("Line: #").append(lineNum).append(" [").append(checksumLine).append("] is improperly formatted.\n");
+//		report.append("Line: #").append(lineNum).append(" [").append(checksumLine).append("] is improperly formatted.\n");
 		badFormats.add(checksumLine);
 	}
 	
 	/**
-	 * Calculate checksums from found files.
-	 * @param files File list.
-	 * @param checksums List of checksums to add to.
-	 * @param digest Digest algorithm instance to use.
+	 * Walk for files on one thread while others calculate their checksums as soon as they are found.
+	 * @param start The path to walk.
+	 * @param writers Where to write checksums to as they finish, one for each algorithm.
+	 * @param digests Digest algorithm instances to use.
+	 * @param io How the files should be read.
+	 * @param cache Cache of checksums from previous runs, may be null.
+	 * @param skip Files already hashed by an interrupted run as normalized absolute paths, may be null.
+	 * @param schedule Order to hash the files in.
+	 * @param progress Counts the files found and hashed.
+	 * @param threads Number of files to hash at once.
 	 * @param verbose If extra console printing should be enabled.
 	 * @throws IOException If any I/O exception occurs.
 	 */
-	private static void calculateFromFiles(List<Path> files, List<FileChecksum> checksums, MessageDigest digest, boolean verbose) throws IOException
+	private static void calculateFromWalk(Path start, ManifestWriter[] writers, MessageDigest[] digests, IOStrategy io, ChecksumCache cache, PathFingerprints skip, Schedule schedule, Progress progress, int threads, boolean verbose) throws IOException
 	{
-		final int total = files.size();
-		for (int i = 0; i < files.size(); i++)
+		final BlockingQueue<Path> queue = new ArrayBlockingQueue<>(WALK_QUEUE);
+		final AtomicInteger count = new AtomicInteger();
+		// Each worker gets its own digests, since they are not thread-safe
+		final ThreadLocal<MessageDigest[]> workerDigests = ThreadLocal.withInitial(() -> cloneDigests(digests));
+		// When waiting on the file system, many more files are walked and read at once, only digesting is limited to the threads
+		final int inFlight = IOLimiter.get().getInFlight(), readers = inFlight > 0 ? inFlight : threads;
+		final ExecutorService pool = inFlight > 0 ? VirtualThreads.newExecutor("reader", readers + 1) : Executors.newFixedThreadPool(threads + 1);
+		final ExecutorService walkers = inFlight > 0 ? VirtualThreads.newExecutor("walker", inFlight) : null;
+		final CompletionService<Integer> service = new ExecutorCompletionService<>(pool);
+		final long hashStart = System.nanoTime();
+		// Producer
+		service.submit(() ->
 		{
-			// Convenience variables
-			final Path file = files.get(i).normalize();// Normalize to remove redundancies
-			final int count = i + 1;
-			if (verbose)
+			final long walkStart = System.nanoTime();
+			try
+			{
+				final WalkScheduler scheduler = new WalkScheduler(schedule, queue, skip, progress);
+				if (walkers != null)
+					new ParallelWalk(walkers, inFlight, scheduler, verbose).walk(start);
+				else
+					getAllPaths(start, scheduler, verbose);
+				scheduler.finish();
+			} finally
 			{
-				System.out.println("Calculating checksum of: [" + file + ']');
-				System.out.println("File #" + count + '/' + total);
+				Metrics.get().time(Metrics.Phase.WALK, walkStart);
+				queue.put(END_OF_WALK);
 			}
-			final byte[] hashBytes = getFileChecksum(file, digest);
-			final FileChecksum checksum = new FileChecksum(file, hashBytes, digest.getAlgorithm());
+			return 0;
+		});
+		// Consumers
+		for (int i = 0; i < readers; i++)
+		{
+			service.submit(() ->
+			{
+				int calculated = 0;
+				Path file;
+				while ((file = queue.take()) != END_OF_WALK)
+				{
+					final FileChecksum checksum = calculateChecksum(file, count.incrementAndGet(), workerDigests.get(), io, cache, progress, verbose);
+					for (ManifestWriter writer : writers)
+						writer.add(checksum);
+					calculated++;
+				}
+				queue.put(END_OF_WALK);// Pass it on so the other workers stop too
+				return calculated;
+			});
+		}
+		
+		try
+		{
+			// Wait in order of completion, so any failure stops everything immediately
+			for (int i = 0; i <= readers; i++)
+				service.take().get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for checksums!");
+		} catch (ExecutionException e)
+		{
+			throw unwrapException(e);
+		} finally
+		{
+			pool.shutdownNow();
+			if (walkers != null)
+				walkers.shutdownNow();
+			Metrics.get().time(Metrics.Phase.HASH, hashStart);
+		}
+	}
+	
+	/**
+	 * Calculate a single file's checksum as part of a batch.
+	 * @param file The file to read.
+	 * @param count The file's position in the batch.
+	 * @param digests Digest algorithm instances to use, must not be shared with other threads.
+	 * @param io How the file should be read.
+	 * @param cache Cache of checksums from previous runs, may be null.
+	 * @param progress Counts the bytes read and the file once it's done, may be null.
+	 * @param verbose If extra console printing should be enabled.
+	 * @return The file's checksum.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	static FileChecksum calculateChecksum(Path file, int count, MessageDigest[] digests, IOStrategy io, ChecksumCache cache, Progress progress, boolean verbose) throws IOException
+	{
+		if (verbose)
+		{
+			System.out.println("Calculating checksum of: [" + file + ']');
+			System.out.println("File #" + count);
+		}
+		// Metadata has to be read before hashing, so a file changed partway is hashed again next time
+		final String[] algorithms = algorithmsOf(digests);
+		final ChecksumCache.Entry metadata = cache != null ? ChecksumCache.readMetadata(file) : null;
+		byte[][] hashBytes = cache != null ? cache.lookup(file, metadata, algorithms) : null;
+		if (hashBytes == null)
+		{
+			hashBytes = getFileChecksums(file, digests, io, progress);
+			if (cache != null)
+				cache.store(file, metadata, algorithms, hashBytes);
+		} else
+		{
+			// Counted as read, so the progress still reaches the total
+			if (progress != null)
+				progress.read(metadata.getSize());
+			Metrics.get().fileCached();
 			if (verbose)
-				System.out.println("Checksum calculated as: " + checksum.getHash());
-			checksums.add(checksum);
+				System.out.println("Unchanged since last run, using cached checksum.");
+		}
+		final FileChecksum checksum = new FileChecksum(file, hashBytes, algorithms);
+		if (verbose)
+			for (int i = 0; i < checksum.getCount(); i++)
+				System.out.println("Checksum calculated as: " + checksum.getHash(i) + (checksum.getCount() > 1 ? " (" + checksum.getAlgorithm(i) + ')' : ""));
+		if (progress != null)
+			progress.finished();
+		return checksum;
+	}
+	
+	/**
+	 * Wait for a background task to finish.
+	 * @param future The task's result.
+	 * @return The result.
+	 * @throws IOException If the task threw an I/O exception or was interrupted.
+	 */
+	private static <T> T waitFor(Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for checksums!");
+		} catch (ExecutionException e)
+		{
+			throw unwrapException(e);
+		}
+	}
+	
+	/**
+	 * Calculate a file's checksum the same way it was stored.
+	 * @param entry The stored entry of the file.
+	 * @param digest Digest algorithm instance to use if not a tree hash.
+	 * @param io How the file should be read.
+	 * @param threads Number of chunks to hash at once if a tree hash.
+	 * @param progress Counts the bytes read and the file once it's done.
+	 * @return The checksum in raw bytes.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private static byte[] getStoredChecksum(ManifestEntry entry, MessageDigest digest, IOStrategy io, int threads, Progress progress) throws IOException
+	{
+		final TreeHash treeHash = entry.getTreeHash();
+		final byte[] hash = treeHash != null ? treeHash.hash(entry.getFile(), io, threads, progress) : getFileChecksum(entry.getFile(), digest, io, progress);
+		progress.finished();
+		return hash;
+	}
+	
+	/**
+	 * Run all tasks on a work-stealing pool and wait for them to finish.
+	 * @param tasks The tasks to run.
+	 * @param threads Parallelism of the pool.
+	 * @return The results in the same order as the tasks.
+	 * @throws IOException If any task threw an I/O exception or was interrupted.
+	 */
+	static <T> List<T> invokeAll(List<Callable<T>> tasks, int threads) throws IOException
+	{
+		final ExecutorService pool = Executors.newWorkStealingPool(threads);
+		try
+		{
+			final List<T> results = new ArrayList<>(tasks.size());
+			for (Future<T> future : pool.invokeAll(tasks))
+				results.add(future.get());
+			return results;
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for checksums!");
+		} catch (ExecutionException e)
+		{
+			throw unwrapException(e);
+		} finally
+		{
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Get the original exception thrown by a task.
+	 * @param e The wrapping exception.
+	 * @return The cause if it was an {@code IOException}, or a new one wrapping it.
+	 */
+	static IOException unwrapException(ExecutionException e)
+	{
+		final Throwable cause = e.getCause();
+		if (cause instanceof IOException)
+			return (IOException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new IOException(cause);
+	}
+	
+	/**
+	 * Create fresh digests of the same algorithms and providers.
+	 * @param digests The digests to copy.
+	 * @return New, independent instances in the same order.
+	 */
+	static MessageDigest[] cloneDigests(MessageDigest[] digests)
+	{
+		final MessageDigest[] clones = new MessageDigest[digests.length];
+		for (int i = 0; i < digests.length; i++)
+			clones[i] = cloneDigest(digests[i]);
+		return clones;
+	}
+	
+	// Names of each digest's algorithm
+	static String[] algorithmsOf(MessageDigest[] digests)
+	{
+		final String[] algorithms = new String[digests.length];
+		for (int i = 0; i < digests.length; i++)
+			algorithms[i] = digests[i].getAlgorithm();
+		return algorithms;
+	}
+	
+	/**
+	 * Create a fresh digest of the same algorithm and provider.
+	 * @param digest The digest to copy.
+	 * @return A new, independent instance.
+	 */
+	static MessageDigest cloneDigest(MessageDigest digest)
+	{
+		try
+		{
+			return (MessageDigest) digest.clone();
+		} catch (CloneNotSupportedException e)
+		{
+			// Not all providers support cloning, get a new instance instead
+			try
+			{
+				return MessageDigest.getInstance(digest.getAlgorithm(), digest.getProvider());
+			} catch (NoSuchAlgorithmException ex)
+			{
+				throw new IllegalStateException("Unable to create another instance of: " + digest.getAlgorithm(), ex);
+			}
+		}
+	}
+	
+	// Attributes following links, or null if the path no longer exists or can't be read
+	static BasicFileAttributes readAttributes(Path path)
+	{
+		try
+		{
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e)
+		{
+			return null;
 		}
 	}
 	
 	/**
 	 * Recursively adds all paths within the path if a folder/directory.
 	 * @param start The starting point of at this level.
-	 * @param paths The list to collect to.
+	 * @param paths Orders the files found before passing them on, blocks if full.
 	 * @param verbose If extra console printing should be enabled.
 	 * @throws IOException If any I/O exception occurs.
+	 * @throws InterruptedException If interrupted while waiting for space in the queue.
 	 */
-	private static void getAllPaths(Path start, List<Path> paths, boolean verbose) throws IOException
+	private static void getAllPaths(Path start, WalkScheduler paths, boolean verbose) throws IOException, InterruptedException
 	{
 		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(start))
 		{
 			for (Path path : stream)
 			{
-				if (Files.isDirectory(path))
+				// Read once for both the type and the size, following links like Files#isDirectory
+				final BasicFileAttributes attributes = readAttributes(path);
+				if (attributes != null && attributes.isDirectory())
 				{
 					if (verbose)
 						System.out.println("Found directory at: " + path.normalize());
 					getAllPaths(path, paths, verbose);
-				} else if (Files.isRegularFile(path))
+				} else if (attributes != null && attributes.isRegularFile())
 				{
 					final Path normalizedPath = path.normalize();
 					if (verbose)
 						System.out.println("Found file at: " + normalizedPath);
-					paths.add(normalizedPath);
+					paths.add(normalizedPath, attributes);
 				} else if (verbose)
 					System.err.println("Warning! Path [" + path.normalize() + "] no longer exists! Skipping path...");
 			}
@@ -420,65 +1305,206 @@ public class Main implements Callable<Integer>
 	 * Calculate the file's checksum in bytes.
 	 * @param path The file the read.
 	 * @param digest The selected digest algorithm instance to use.
+	 * @param io How the file should be read.
+	 * @param progress Counts the bytes read, may be null.
 	 * @return The checksum in raw bytes.
 	 * @throws IOException If any I/O exception occurs.
 	 */
-	private static byte[] getFileChecksum(Path path, MessageDigest digest) throws IOException
-	{
-		// Get total size of file
-		final long size = Files.size(path);
-		final ProgressBarBuilder builder = new ProgressBarBuilder()
-//				.setUnit("MB", MB)
-				.showSpeed()
-				.setInitialMax(size)
-				.setTaskName("Reading...");
-		if (size < KB * 2)
-			builder.setUnit("B", 1);// If less than 2 KB
-		else if (size < MB * 2)
-			builder.setUnit("KB", KB);// If less than 2 MB
-		else if (size < GB * 2)
-			builder.setUnit("MB", MB);// If less than 2 GB
-		else
-			builder.setUnit("GB", GB);// If any larger
-		
-		// Read through digest stream and progress bar until done
-		try (final InputStream inputStream = new DigestInputStream(ProgressBar.wrap(Files.newInputStream(path), builder), digest))
+	static byte[] getFileChecksum(Path path, MessageDigest digest, IOStrategy io, Progress progress) throws IOException
+	{
+		return getFileChecksums(path, new MessageDigest[] {digest}, io, progress)[0];
+	}
+	
+	/**
+	 * Calculate the file's checksums in bytes, reading it only once no matter how many algorithms.
+	 * @param path The file the read.
+	 * @param digests The selected digest algorithm instances to use.
+	 * @param io How the file should be read.
+	 * @param progress Counts the bytes read, may be null.
+	 * @return The checksums in raw bytes, in the same order as the digests.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	static byte[][] getFileChecksums(Path path, MessageDigest[] digests, IOStrategy io, Progress progress) throws IOException
+	{
+		for (MessageDigest digest : digests)
+			digest.reset();// In case a previous file failed partway
+		// Waits for its turn at the file's device
+		final IOLimiter.Permit permit = IOLimiter.get().acquire(path);
+		final long start = System.nanoTime();
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
 		{
-			long read = 0;
-			while (read < size)
+			final long size = channel.size();
+			final IOLimiter limiter = IOLimiter.get();
+			final IOStrategy strategy = io.resolve(size);
+			if (strategy == IOStrategy.MMAP)
+				mapIntoDigest(channel, size, digests, progress);
+			else if (strategy == IOStrategy.AHEAD && size > BUFFER && limiter.getInFlight() <= 0)// Nothing to overlap within a buffer, and reads in flight already overlap each other
+				ReadAhead.readIntoDigest(channel, digests, progress);
+			else
 			{
-				final int alloc = (int) Math.min(BUFFER, size - read);
-				final byte[] buffer = new byte[alloc];
-				inputStream.read(buffer);
-				read += alloc;
+				final ByteBuffer buffer = limiter.takeBuffer();
+				try
+				{
+					readIntoDigest(channel, digests, buffer, progress);
+				} finally
+				{
+					limiter.returnBuffer(buffer);
+				}
 			}
 			// Completed
-			return digest.digest();
+			final byte[][] hashes = new byte[digests.length][];
+			for (int i = 0; i < digests.length; i++)
+				hashes[i] = digests[i].digest();
+			Metrics.get().fileHashed(algorithmsOf(digests), size, System.nanoTime() - start);
+			return hashes;
+		} finally
+		{
+			permit.close();
+		}
+	}
+	
+	/**
+	 * Read the whole channel into the digests through a buffer.
+	 * @param channel The file to read.
+	 * @param digests The digests to update.
+	 * @param buffer The buffer to read through, normally this thread's.
+	 * @param progress Counts the bytes read, may be null.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	static void readIntoDigest(FileChannel channel, MessageDigest[] digests, ByteBuffer buffer, Progress progress) throws IOException
+	{
+		buffer.clear();
+		// Read until the end of the file, the read count handles short reads
+		int read;
+		final IOLimiter limiter = IOLimiter.get();
+		while ((read = channel.read(buffer)) >= 0)
+		{
+			limiter.throttle(read);
+			buffer.flip();
+			limiter.startDigest();
+			try
+			{
+				updateAll(digests, buffer);
+			} finally
+			{
+				limiter.endDigest();
+			}
+			buffer.clear();
+			if (progress != null)
+				progress.read(read);
+		}
+	}
+	
+	/**
+	 * Map the channel into memory one window at a time and pass the mapped memory directly to the digests.
+	 * @param channel The file to read.
+	 * @param size Size of the file when it was opened.
+	 * @param digests The digests to update.
+	 * @param progress Counts the bytes read, may be null.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	static void mapIntoDigest(FileChannel channel, long size, MessageDigest[] digests, Progress progress) throws IOException
+	{
+		final IOLimiter limiter = IOLimiter.get();
+		for (long position = 0; position < size; position += MMAP_WINDOW)
+		{
+			final MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, Math.min(MMAP_WINDOW, size - position));
+			// Digest in buffer sized steps so the progress still moves smoothly
+			while (window.hasRemaining())
+			{
+				final int step = Math.min(BUFFER, window.remaining());
+				limiter.throttle(step);// Pages are only read when touched
+				window.limit(window.position() + step);
+				limiter.startDigest();
+				try
+				{
+					updateAll(digests, window);
+				} finally
+				{
+					limiter.endDigest();
+				}
+				window.limit(window.capacity());
+				if (progress != null)
+					progress.read(step);
+			}
+		}
+	}
+	
+	// Feed the same bytes to every digest, leaving the buffer's position at its limit
+	static void updateAll(MessageDigest[] digests, ByteBuffer buffer)
+	{
+		final int start = buffer.position();
+		for (MessageDigest digest : digests)
+		{
+			buffer.position(start);
+			digest.update(buffer);
 		}
 	}
 	
 	/// Imported utilities ///
 	
-	static String bytesToHex(boolean pad, byte...bytes)
+	static String bytesToHex(byte...bytes)
 	{
-		final StringBuilder builder = new StringBuilder(bytes.length * 2);
-		for (byte b : bytes)
+		final char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
 		{
-			final String hex = Integer.toHexString(b & 0xff);
-			appendAndPad(pad, 2, hex, builder);
+			chars[i * 2] = HEX_DIGITS[bytes[i] >> 4 & 0xf];
+			chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
 		}
-		return builder.toString();
+		return new String(chars);
+	}
+	
+	/**
+	 * Append bytes in lowercase hexadecimal, without making a string of them first.
+	 * @param builder The builder to append to.
+	 * @param bytes The bytes.
+	 * @param offset Index of the first byte.
+	 * @param length Number of bytes.
+	 */
+	static void appendHex(StringBuilder builder, byte[] bytes, int offset, int length)
+	{
+		for (int i = offset; i < offset + length; i++)
+			builder.append(HEX_DIGITS[bytes[i] >> 4 & 0xf]).append(HEX_DIGITS[bytes[i] & 0xf]);
+	}
+	
+	/**
+	 * Decode hexadecimal characters.
+	 * @param hex The characters, in either case.
+	 * @param start Index of the first character.
+	 * @param end Index after the last character.
+	 * @return The decoded bytes, or null if there isn't an even number of hexadecimal characters.
+	 */
+	static byte[] hexToBytes(CharSequence hex, int start, int end)
+	{
+		final int length = end - start;
+		if (length <= 0 || length % 2 != 0)
+			return null;
+		final byte[] bytes = new byte[length / 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			final int high = hexValue(hex.charAt(start + i * 2)), low = hexValue(hex.charAt(start + i * 2 + 1));
+			if ((high | low) < 0)
+				return null;
+			bytes[i] = (byte) (high << 4 | low);
+		}
+		return bytes;
+	}
+	
+	private static int hexValue(char c)
+	{
+		return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
 	}
 	
-	private static void appendAndPad(boolean pad, int len, String end, StringBuilder builder)
+	private static byte[] hexValues()
 	{
-		if (pad && end.length() < len)
+		final byte[] values = new byte[128];
+		Arrays.fill(values, (byte) -1);
+		for (int i = 0; i < HEX_DIGITS.length; i++)
 		{
-			final char[] padding = new char[len - end.length()];
-			Arrays.fill(padding, '0');
-			builder.append(padding);
+			values[HEX_DIGITS[i]] = (byte) i;
+			values[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
 		}
-		builder.append(end);
+		return values;
 	}
 	
 	private static void iterableToList(Iterable<?> iterable, Consumer<String> appender, boolean newLine)
@@ -0,0 +1,287 @@
+package main;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two checksum lists in a single pass, as a merge-join of both in manifest order.
+ * <br>
+ * Entries only in one list are held back for a while, keyed by checksum, so a removed and an added file with the same checksum
+ * can be reported as a rename. At most {@link #RENAME_WINDOW} are held, older ones are reported as plain additions or removals,
+ * so memory use doesn't depend on the size of either list.
+ * <br>
+ * Binary lists with directory digests can instead be compared from the root down, skipping every directory whose digest
+ * is the same in both, so the work depends on how much changed rather than on the size of the lists.
+ */
+public final class ManifestDiff
+{
+	public static final int RENAME_WINDOW = Main.KB * 64;
+
+	private final Writer report;
+	// Unmatched entries waiting for a rename partner, by checksum in the order they were found
+	private final Map<ByteBuffer, ArrayDeque<Path>> pendingRemoved = new LinkedHashMap<>(), pendingAdded = new LinkedHashMap<>();
+	// Paths waiting on each side, each checksum can have several
+	private int pendingRemovedPaths, pendingAddedPaths;
+	private long added, removed, modified, renamed, unchanged, skippedDirectories, badFormats;
+
+	/**
+	 * @param report Receives a line for every difference.
+	 */
+	public ManifestDiff(Writer report)
+	{
+		this.report = report;
+	}
+
+	/**
+	 * Compare the lists, both must be in manifest order.
+	 * @param before The older list.
+	 * @param after The newer list.
+	 * @throws IOException If any I/O exception occurs, or a list isn't in manifest order.
+	 */
+	public void compare(ManifestSource before, ManifestSource after) throws IOException
+	{
+		final SortedReader oldReader = new SortedReader(before), newReader = new SortedReader(after);
+		ManifestEntry oldEntry = oldReader.next(), newEntry = newReader.next();
+		while (oldEntry != null || newEntry != null)
+		{
+			final int comparison = oldEntry == null ? 1 : newEntry == null ? -1 : Main.MANIFEST_ORDER.compare(oldEntry.getFile(), newEntry.getFile());
+			if (comparison == 0)
+			{
+				if (sameHash(oldEntry, newEntry))
+					unchanged++;
+				else
+				{
+					report.append("M ").append(newEntry.getFile().toString()).append('\n');
+					modified++;
+				}
+				oldEntry = oldReader.next();
+				newEntry = newReader.next();
+			} else if (comparison < 0)
+			{
+				unmatched(oldEntry, pendingRemoved, pendingAdded, false);
+				oldEntry = oldReader.next();
+			} else
+			{
+				unmatched(newEntry, pendingAdded, pendingRemoved, true);
+				newEntry = newReader.next();
+			}
+		}
+		// Nothing left to pair with
+		while (pendingRemovedPaths + pendingAddedPaths > 0)
+			evictOldest();
+		report.flush();
+	}
+
+	/**
+	 * Compare binary lists with directory digests from the root down, only reading the children of directories that differ.
+	 * Differences are reported one directory at a time instead of in manifest order.
+	 * @param before The older list.
+	 * @param after The newer list.
+	 * @return False if nothing was compared, because the lists don't both end with a digest of the same root directory.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public boolean compareTrees(BinaryManifest before, BinaryManifest after) throws IOException
+	{
+		final ManifestEntry oldRoot = before.getLast(), newRoot = after.getLast();
+		if (oldRoot == null || newRoot == null || !oldRoot.isDirectory() || !newRoot.isDirectory() || !oldRoot.getFile().equals(newRoot.getFile()))
+			return false;
+		// Directories that differ, in the order they were found
+		final ArrayDeque<Path> directories = new ArrayDeque<>();
+		if (sameHash(oldRoot, newRoot))
+			skippedDirectories++;
+		else
+			directories.add(oldRoot.getFile());
+		while (!directories.isEmpty())
+		{
+			final Path directory = directories.poll();
+			final List<ManifestEntry> oldChildren = before.children(directory), newChildren = after.children(directory);
+			int oldIndex = 0, newIndex = 0;
+			while (oldIndex < oldChildren.size() || newIndex < newChildren.size())
+			{
+				final ManifestEntry oldEntry = oldIndex < oldChildren.size() ? oldChildren.get(oldIndex) : null;
+				final ManifestEntry newEntry = newIndex < newChildren.size() ? newChildren.get(newIndex) : null;
+				final int comparison = oldEntry == null ? 1 : newEntry == null ? -1 : Main.MANIFEST_ORDER.compare(oldEntry.getFile(), newEntry.getFile());
+				if (comparison == 0 && oldEntry.isDirectory() == newEntry.isDirectory())
+				{
+					if (oldEntry.isDirectory())
+					{
+						if (sameHash(oldEntry, newEntry))
+							skippedDirectories++;
+						else
+							directories.add(newEntry.getFile());
+					} else if (sameHash(oldEntry, newEntry))
+						unchanged++;
+					else
+					{
+						report.append("M ").append(newEntry.getFile().toString()).append('\n');
+						modified++;
+					}
+					oldIndex++;
+					newIndex++;
+				} else if (comparison <= 0)// Also a file replaced by a directory, or the other way around
+					unmatchedTree(before, oldChildren.get(oldIndex++), false);
+				else
+					unmatchedTree(after, newChildren.get(newIndex++), true);
+			}
+		}
+		// Nothing left to pair with
+		while (pendingRemovedPaths + pendingAddedPaths > 0)
+			evictOldest();
+		report.flush();
+		return true;
+	}
+
+	public long getAdded()
+	{
+		return added;
+	}
+
+	public long getRemoved()
+	{
+		return removed;
+	}
+
+	public long getModified()
+	{
+		return modified;
+	}
+
+	public long getRenamed()
+	{
+		return renamed;
+	}
+
+	public long getUnchanged()
+	{
+		return unchanged;
+	}
+
+	// Directories with the same digest in both lists, whose contents weren't compared
+	public long getSkippedDirectories()
+	{
+		return skippedDirectories;
+	}
+
+	public long getBadFormats()
+	{
+		return badFormats;
+	}
+
+	public boolean hasDifferences()
+	{
+		return added + removed + modified + renamed > 0;
+	}
+
+	/**
+	 * Pair an entry only in one list with a waiting one from the other list, or hold it back.
+	 * @param entry The entry.
+	 * @param own Waiting entries from the same list.
+	 * @param other Waiting entries from the other list.
+	 * @param isNew If the entry is from the newer list.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private void unmatched(ManifestEntry entry, Map<ByteBuffer, ArrayDeque<Path>> own, Map<ByteBuffer, ArrayDeque<Path>> other, boolean isNew) throws IOException
+	{
+		final ByteBuffer key = ByteBuffer.wrap(entry.getHash());
+		final ArrayDeque<Path> partners = other.get(key);
+		if (partners != null)
+		{
+			final Path partner = partners.poll();
+			if (partners.isEmpty())
+				other.remove(key);
+			if (isNew)
+				pendingRemovedPaths--;
+			else
+				pendingAddedPaths--;
+			report.append("R ").append((isNew ? partner : entry.getFile()).toString()).append(" -> ").append((isNew ? entry.getFile() : partner).toString()).append('\n');
+			renamed++;
+			return;
+		}
+		own.computeIfAbsent(key, k -> new ArrayDeque<>(1)).add(entry.getFile());
+		if (isNew)
+			pendingAddedPaths++;
+		else
+			pendingRemovedPaths++;
+		if (pendingRemovedPaths + pendingAddedPaths > RENAME_WINDOW)
+			evictOldest();
+	}
+
+	// Entry only in one list, every file below it if it's a directory
+	private void unmatchedTree(BinaryManifest manifest, ManifestEntry entry, boolean isNew) throws IOException
+	{
+		final ArrayDeque<ManifestEntry> entries = new ArrayDeque<>();
+		entries.add(entry);
+		while (!entries.isEmpty())
+		{
+			final ManifestEntry next = entries.poll();
+			if (next.isDirectory())
+				entries.addAll(manifest.children(next.getFile()));
+			else if (isNew)
+				unmatched(next, pendingAdded, pendingRemoved, true);
+			else
+				unmatched(next, pendingRemoved, pendingAdded, false);
+		}
+	}
+
+	private static boolean sameHash(ManifestEntry first, ManifestEntry second)
+	{
+		return ByteBuffer.wrap(first.getHash()).equals(ByteBuffer.wrap(second.getHash()));
+	}
+
+	// Give up on pairing the oldest waiting entry of whichever list has more waiting
+	private void evictOldest() throws IOException
+	{
+		final boolean fromRemoved = pendingRemovedPaths >= pendingAddedPaths && pendingRemovedPaths > 0 || pendingAddedPaths == 0;
+		final Map<ByteBuffer, ArrayDeque<Path>> map = fromRemoved ? pendingRemoved : pendingAdded;
+		final Iterator<Map.Entry<ByteBuffer, ArrayDeque<Path>>> iterator = map.entrySet().iterator();
+		final ArrayDeque<Path> paths = iterator.next().getValue();
+		final Path path = paths.poll();
+		if (paths.isEmpty())
+			iterator.remove();
+		if (fromRemoved)
+		{
+			pendingRemovedPaths--;
+			report.append("- ").append(path.toString()).append('\n');
+			removed++;
+		} else
+		{
+			pendingAddedPaths--;
+			report.append("+ ").append(path.toString()).append('\n');
+			added++;
+		}
+	}
+
+	// Skips improperly formatted lines and directory digests, and makes sure the list is in order
+	private final class SortedReader
+	{
+		private final ManifestSource source;
+		private Path previous;
+
+		SortedReader(ManifestSource source)
+		{
+			this.source = source;
+		}
+
+		ManifestEntry next() throws IOException
+		{
+			ManifestEntry entry;
+			while ((entry = source.next()) != null && (!entry.isValid() || entry.isDirectory()))
+				if (!entry.isValid())
+					badFormats++;
+			if (entry != null)
+			{
+				if (previous != null && Main.MANIFEST_ORDER.compare(previous, entry.getFile()) > 0)
+					throw new IOException("Checksum list isn't sorted by depth then name at [" + entry.getFile() + "], it can only be compared if it was made by this program!");
+				previous = entry.getFile();
+			}
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package main;
+
+import java.nio.file.Path;
+
+/**
+ * A single parsed line of a checksum list, or a line that couldn't be parsed.
+ */
+public final class ManifestEntry
+{
+	private final Path file;
+	private final byte[] hash;
+	private final String algorithm, line;
+	private final TreeHash treeHash;
+	private final long lineNumber;
+	
+	public ManifestEntry(Path file, byte[] hash, String algorithm, TreeHash treeHash, String line, long lineNumber)
+	{
+		this.file = file;
+		this.hash = hash;
+		this.algorithm = algorithm;
+		this.treeHash = treeHash;
+		this.line = line;
+		this.lineNumber = lineNumber;
+	}
+	
+	// Improperly formatted line
+	public static ManifestEntry badFormat(String line, long lineNumber)
+	{
+		return new ManifestEntry(null, null, null, null, line, lineNumber);
+	}
+	
+	public boolean isValid()
+	{
+		return hash != null;
+	}
+	
+	public Path getFile()
+	{
+		return file;
+	}
+	
+	// Not copied, entries are short-lived
+	public byte[] getHash()
+	{
+		return hash;
+	}
+	
+	// The tagged algorithm name, null if untagged
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+	
+	// Directory digest added by --merkle, see MerkleTree
+	public boolean isDirectory()
+	{
+		return MerkleTree.isMerkleAlgorithm(algorithm);
+	}
+	
+	// Null unless stored as a tree hash
+	public TreeHash getTreeHash()
+	{
+		return treeHash;
+	}
+	
+	/**
+	 * Checks if the checksum can be checked with an algorithm, a tagged one has to be named after it.
+	 * @param digestAlgorithm The selected algorithm.
+	 * @return True, if untagged, tagged with the algorithm or a directory digest of it, or a tree hash, which names its own.
+	 */
+	public boolean isFor(String digestAlgorithm)
+	{
+		if (algorithm == null || treeHash != null)
+			return true;
+		return isDirectory() ? algorithm.regionMatches(true, MerkleTree.PREFIX.length(), digestAlgorithm, 0, digestAlgorithm.length())
+				&& algorithm.length() == MerkleTree.PREFIX.length() + digestAlgorithm.length() : algorithm.equalsIgnoreCase(digestAlgorithm);
+	}
+	
+	public String getLine()
+	{
+		return line;
+	}
+	
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+}
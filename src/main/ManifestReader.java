@@ -0,0 +1,82 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reads a checksum list one line at a time, in either the GNU coreutils format or the tagged format.
+ */
+public final class ManifestReader implements ManifestSource
+{
+	private final BufferedReader reader;
+	private long lineNumber;
+	
+	/**
+	 * @param path The checksum list to read.
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public ManifestReader(Path path) throws IOException
+	{
+		reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8), Main.MB);
+	}
+	
+	/**
+	 * Read and parse the next line.
+	 * @return The next entry, which may be improperly formatted, or null if there are no more lines.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	@Override
+	public ManifestEntry next() throws IOException
+	{
+		final String line = reader.readLine();
+		return line != null ? parse(line, ++lineNumber) : null;
+	}
+	
+	/**
+	 * Parse a single line.
+	 * @param checksumLine The line.
+	 * @param lineNumber The line # in the list.
+	 * @return The parsed entry, which may be improperly formatted.
+	 */
+	public static ManifestEntry parse(String checksumLine, long lineNumber)
+	{
+		// Check for the tagged format, "ALGORITHM (path) = checksum", where the algorithm is the first word and can't be
+		// mistaken for a checksum, so a path containing " (" and ") = " after a checksum isn't taken for it
+		final int openIndex = checksumLine.indexOf(" ("), closeIndex = checksumLine.lastIndexOf(") = ");
+		final boolean tagged = openIndex > 0 && closeIndex > openIndex && checksumLine.indexOf(' ') == openIndex && !Main.validHash(checksumLine, 0, openIndex);
+		// Try to find the double-space break index delimiting the checksum from the path
+		final int breakIndex = tagged ? -1 : checksumLine.indexOf("  ");
+		if (!tagged && breakIndex < 0)
+			return ManifestEntry.badFormat(checksumLine, lineNumber);
+		
+		// Split the checksum and path from each other, and check if the hash has valid chars
+		final byte[] storedHash = tagged ? Main.hexToBytes(checksumLine, closeIndex + 4, checksumLine.length()) : Main.hexToBytes(checksumLine, 0, breakIndex);
+		if (storedHash == null)
+			return ManifestEntry.badFormat(checksumLine, lineNumber);
+		final Path filePath = Paths.get(tagged ? checksumLine.substring(openIndex + 2, closeIndex) : checksumLine.substring(breakIndex + 2)).normalize();
+		final String algorithm = tagged ? checksumLine.substring(0, openIndex) : null;
+		try
+		{
+			final TreeHash treeHash = tagged ? TreeHash.forName(algorithm) : null;
+			// A tree hash name that can't be parsed isn't a plain digest either
+			if (treeHash == null && tagged && TreeHash.isTreeAlgorithm(algorithm))
+				return ManifestEntry.badFormat(checksumLine, lineNumber);
+			return new ManifestEntry(filePath, storedHash, algorithm, treeHash, checksumLine, lineNumber);
+		} catch (NoSuchAlgorithmException e)
+		{
+			return ManifestEntry.badFormat(checksumLine, lineNumber);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+}
@@ -0,0 +1,63 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Entries of a checksum list in list order, from either the text or the binary format.
+ */
+public interface ManifestSource extends Closeable
+{
+	/**
+	 * Read the next entry.
+	 * @return The next entry, which may be improperly formatted, or null if there are no more.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	ManifestEntry next() throws IOException;
+
+	/**
+	 * Only pass through the entries for some paths, reading and skipping the rest.
+	 * @param source The entries to filter.
+	 * @param paths The paths to keep, compared after normalizing.
+	 * @param unlisted Receives the paths that weren't in the list once every entry has been read.
+	 * @return The filtered entries, closing it closes the source.
+	 */
+	static ManifestSource filter(ManifestSource source, Collection<Path> paths, List<Path> unlisted)
+	{
+		final Set<Path> remaining = new HashSet<>(paths.size() * 2);
+		for (Path path : paths)
+			remaining.add(path.normalize());
+		final Set<Path> wanted = new HashSet<>(remaining);
+		return new ManifestSource()
+		{
+			@Override
+			public ManifestEntry next() throws IOException
+			{
+				ManifestEntry entry;
+				while ((entry = source.next()) != null)
+				{
+					if (entry.isValid() && wanted.contains(entry.getFile()))
+					{
+						remaining.remove(entry.getFile());
+						return entry;
+					}
+				}
+				// Everything was read, whatever is left wasn't listed
+				unlisted.addAll(remaining);
+				remaining.clear();
+				return null;
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				source.close();
+			}
+		};
+	}
+}
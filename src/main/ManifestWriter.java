@@ -0,0 +1,452 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Writes checksums as they are calculated, then sorts them into the final manifest without holding all of them in memory.
+ * <br>
+ * Every checksum is appended to a partial manifest next to the output as soon as it's added, so a run that is killed still leaves
+ * a checkable list behind, which is also the checkpoint an interrupted run is resumed from. Sorting is done in bounded runs that are
+ * spilled to temporary files and merged at the end.
+ * <br>
+ * The final manifest can also be written in the binary format, the partial one is always text. Directory digests are only added
+ * to the final manifest, since they need the sorted order.
+ */
+public final class ManifestWriter implements Closeable
+{
+	public static final int RUN_SIZE = Main.KB * 64;// Entries sorted in memory before spilling to a temporary file
+	public static final String PARTIAL_EXTENSION = ".part";
+	private static final long FLUSH_INTERVAL = 1000;// Milliseconds between flushes of the partial manifest
+	private static final char SEPARATOR = '\0';// Between the sort key and the line in run files, can't appear in paths
+
+	private final Path inputPath, output, partial;
+	private final boolean absolutePaths, binary, merkle;
+	private final int index;
+	private final MessageDigest digest;
+	private final Writer partialWriter;
+	private final List<Entry> run = new ArrayList<>();
+	private final List<Path> runFiles = new ArrayList<>();
+	// Lines of the interrupted run sorted by name as written, until they are resumed
+	private List<Path> resumedRuns;
+	private final StringBuilder lineBuilder = new StringBuilder();
+	private long lastFlush = System.currentTimeMillis();
+	private int count;
+
+	/**
+	 * @param output The final manifest, may be null if only printing.
+	 * @param index Which of each checksum's algorithms this manifest is for.
+	 * @param inputPath The input path, used to relativize the file names.
+	 * @param absolutePaths If the file names should be absolute instead.
+	 * @param digest The algorithm of the checksums.
+	 * @param binary If the output should be in the binary format instead of text.
+	 * @param merkle If a digest of every directory should be added, see {@link MerkleTree}.
+	 * @param resume If the partial manifest of an interrupted run should be read and kept, instead of starting a new one.
+	 * @throws IOException If the partial manifest couldn't be created or read.
+	 */
+	public ManifestWriter(Path output, int index, Path inputPath, boolean absolutePaths, MessageDigest digest, boolean binary, boolean merkle, boolean resume) throws IOException
+	{
+		this.digest = digest;
+		this.binary = binary;
+		this.merkle = merkle;
+		this.index = index;
+		this.inputPath = inputPath;
+		this.output = output;
+		this.absolutePaths = absolutePaths;
+		this.partial = output != null ? output.resolveSibling(output.getFileName() + PARTIAL_EXTENSION) : null;
+		this.resumedRuns = resume && partial != null ? readPartial(partial) : null;
+		this.partialWriter = partial == null ? null : resumedRuns != null ? Files.newBufferedWriter(partial, StandardCharsets.UTF_8, StandardOpenOption.APPEND)
+				: Files.newBufferedWriter(partial, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the checksums found in the partial manifest of an interrupted run, only once. Nothing is kept unless passed to
+	 * {@link #resume(Path, String)}, any others from it will be calculated again.
+	 * @return The checksums sorted by name as written, the last one for any repeated name, or null if not resuming or there
+	 * was no partial manifest. Closing it deletes them.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public synchronized Resumed openResumed() throws IOException
+	{
+		if (resumedRuns == null)
+			return null;
+		final Resumed opened = new Resumed(resumedRuns);
+		resumedRuns = null;
+		return opened;
+	}
+
+	/**
+	 * Keep a checksum from the interrupted run instead of calculating it again, it's already in the partial manifest.
+	 * @param name The name as written.
+	 * @param line The line from the partial manifest.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public synchronized void resume(Path name, String line) throws IOException
+	{
+		run.add(new Entry(name, line));
+		if (run.size() >= RUN_SIZE)
+			spillRun();
+		count++;
+	}
+
+	/**
+	 * Add a checksum, safe to call from any thread.
+	 * @param checksum The checksum to add.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public synchronized void add(FileChecksum checksum) throws IOException
+	{
+		lineBuilder.setLength(0);
+		checksum.addToBuilder(lineBuilder, index, inputPath, absolutePaths);
+		final String line = lineBuilder.substring(0, lineBuilder.length() - 1);// Without the newline
+		if (partialWriter != null)
+		{
+			partialWriter.append(line).append('\n');
+			// Keep the partial manifest reasonably current without flushing every line
+			final long now = System.currentTimeMillis();
+			if (now - lastFlush >= FLUSH_INTERVAL)
+			{
+				partialWriter.flush();
+				lastFlush = now;
+			}
+		}
+		run.add(new Entry(checksum.getName(inputPath, absolutePaths).normalize(), line));
+		if (run.size() >= RUN_SIZE)
+			spillRun();
+		count++;
+	}
+
+	public synchronized int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Sort everything added and write it to the output file and the given console writer.
+	 * @param console Also receives the sorted manifest, may be null.
+	 * @return The output file, or null if there wasn't one.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public synchronized Path finish(Writer console) throws IOException
+	{
+		if (partialWriter != null)
+			partialWriter.flush();
+		// Sort whatever is still in memory, on its own if nothing was spilled
+		if (runFiles.isEmpty())
+		{
+			final long sortStart = System.nanoTime();
+			run.sort(Comparator.comparing(Entry::getFile, Main.MANIFEST_ORDER));
+			Metrics.get().time(Metrics.Phase.SORT, sortStart);
+		} else
+			spillRun();
+		final long writeStart = System.nanoTime();
+		final boolean toBinary = output != null && binary;
+		try (final Writer outputWriter = output != null && !toBinary ? Files.newBufferedWriter(output, StandardCharsets.UTF_8) : null;
+				final BinaryManifestWriter binaryWriter = toBinary ? new BinaryManifestWriter(output, digest.getAlgorithm(), digest.getDigestLength(), inputPath.toAbsolutePath().normalize().toString()) : null)
+		{
+			// Directories are added in between the sorted lines
+			final MerkleTree.LineSink lines = line -> writeLine(line, outputWriter, binaryWriter, console);
+			final MerkleTree tree = merkle && !Files.isRegularFile(inputPath) ? new MerkleTree(digest, absolutePaths ? inputPath.toAbsolutePath().normalize() : Paths.get(""), lines) : null;
+			final MerkleTree.LineSink sink = tree != null ? tree::add : lines;
+			if (runFiles.isEmpty())
+			{
+				// Everything fit in memory
+				for (Entry entry : run)
+					sink.accept(entry.line);
+			} else
+				mergeRuns(sink);
+			if (tree != null)
+				tree.finish();
+			if (binaryWriter != null)
+				binaryWriter.finish();
+		}
+		if (console != null)
+			console.flush();
+		// Complete, the partial manifest isn't needed anymore
+		if (partial != null)
+		{
+			partialWriter.close();
+			Files.delete(partial);
+		}
+		Metrics.get().time(Metrics.Phase.WRITE, writeStart);
+		return output;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (partialWriter != null)
+			partialWriter.close();
+		for (Path runFile : runFiles)
+			Files.deleteIfExists(runFile);
+		runFiles.clear();
+		if (resumedRuns != null)
+			for (Path runFile : resumedRuns)
+				Files.deleteIfExists(runFile);
+		resumedRuns = null;
+	}
+
+	/**
+	 * Read every complete line of a partial manifest into sorted runs like the ones spilled while adding, and cut off a line
+	 * that was only partly written when the run was killed.
+	 * @param partial The partial manifest.
+	 * @return The run files in the order of the partial manifest, or null if it doesn't exist.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private static List<Path> readPartial(Path partial) throws IOException
+	{
+		if (!Files.isRegularFile(partial))
+			return null;
+		try (final FileChannel channel = FileChannel.open(partial, StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			// Back to just after the last newline, lines are appended whole so nothing before it is partly written
+			final ByteBuffer last = ByteBuffer.allocate(1);
+			long end = channel.size();
+			while (end > 0 && channel.read(last.clear(), end - 1) == 1 && last.get(0) != '\n')
+				end--;
+			channel.truncate(end);
+		}
+		final List<Path> runs = new ArrayList<>();
+		final List<Entry> lines = new ArrayList<>();
+		try (final ManifestReader reader = new ManifestReader(partial))
+		{
+			ManifestEntry entry;
+			while ((entry = reader.next()) != null)
+			{
+				if (!entry.isValid())
+					continue;
+				lines.add(new Entry(entry.getFile(), entry.getLine()));
+				if (lines.size() >= RUN_SIZE)
+					writeRun(lines, runs);
+			}
+			if (!lines.isEmpty())
+				writeRun(lines, runs);
+		} catch (IOException e)
+		{
+			for (Path runFile : runs)
+				Files.deleteIfExists(runFile);
+			throw e;
+		}
+		return runs;
+	}
+
+	// Sort the current run and move it to a temporary file
+	private void spillRun() throws IOException
+	{
+		final long sortStart = System.nanoTime();
+		writeRun(run, runFiles);
+		Metrics.get().time(Metrics.Phase.SORT, sortStart);
+	}
+
+	// Sort entries and move them to a new temporary file, the sort is stable so repeated names stay in the order they were added
+	private static void writeRun(List<Entry> entries, List<Path> runFiles) throws IOException
+	{
+		entries.sort(Comparator.comparing(Entry::getFile, Main.MANIFEST_ORDER));
+		final Path runFile = Files.createTempFile("pathsum-run", ".tmp");
+		runFiles.add(runFile);
+		try (final BufferedWriter writer = Files.newBufferedWriter(runFile, StandardCharsets.UTF_8))
+		{
+			for (Entry entry : entries)
+			{
+				writer.append(entry.file.toString()).append(SEPARATOR).append(entry.line);
+				writer.newLine();
+			}
+		}
+		entries.clear();
+	}
+
+	// K-way merge of every spilled run
+	private void mergeRuns(MerkleTree.LineSink sink) throws IOException
+	{
+		final PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size(), Comparator.comparing(RunReader::getFile, Main.MANIFEST_ORDER));
+		try
+		{
+			for (Path runFile : runFiles)
+			{
+				final RunReader reader = new RunReader(Files.newBufferedReader(runFile, StandardCharsets.UTF_8));
+				if (reader.advance())
+					queue.add(reader);
+				else
+					reader.close();
+			}
+			while (!queue.isEmpty())
+			{
+				final RunReader reader = queue.poll();
+				sink.accept(reader.line);
+				if (reader.advance())
+					queue.add(reader);
+				else
+					reader.close();
+			}
+		} finally
+		{
+			for (RunReader reader : queue)
+				reader.close();
+		}
+	}
+
+	private static void writeLine(String line, Writer outputWriter, BinaryManifestWriter binaryWriter, Writer console) throws IOException
+	{
+		if (outputWriter != null)
+			outputWriter.append(line).append('\n');
+		if (binaryWriter != null)
+			binaryWriter.add(ManifestReader.parse(line, 0));// Parsed back, so both formats come from the same line
+		if (console != null)
+			console.append(line).append('\n');
+	}
+
+	private static final class Entry
+	{
+		private final Path file;
+		private final String line;
+
+		Entry(Path file, String line)
+		{
+			this.file = file;
+			this.line = line;
+		}
+
+		Path getFile()
+		{
+			return file;
+		}
+	}
+
+	/**
+	 * The checksums of an interrupted run, merged from its sorted runs one name at a time.
+	 */
+	public static final class Resumed implements Closeable
+	{
+		private final List<Path> runFiles;
+		// Ties go to the later run, so the last line for a name comes out last
+		private final PriorityQueue<RunReader> queue;
+		private Path file;
+		private String line;
+
+		Resumed(List<Path> runFiles) throws IOException
+		{
+			this.runFiles = runFiles;
+			this.queue = new PriorityQueue<>(Math.max(runFiles.size(), 1), Comparator.comparing(RunReader::getFile, Main.MANIFEST_ORDER).thenComparingInt(RunReader::getOrder));
+			try
+			{
+				for (int i = 0; i < runFiles.size(); i++)
+				{
+					final RunReader reader = new RunReader(Files.newBufferedReader(runFiles.get(i), StandardCharsets.UTF_8), i);
+					if (reader.advance())
+						queue.add(reader);
+					else
+						reader.close();
+				}
+			} catch (IOException e)
+			{
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Move to the next name.
+		 * @return False if there are no more.
+		 * @throws IOException If any I/O exception occurs.
+		 */
+		public boolean advance() throws IOException
+		{
+			if (queue.isEmpty())
+				return false;
+			do
+			{
+				final RunReader reader = queue.poll();
+				file = reader.file;
+				line = reader.line;
+				if (reader.advance())
+					queue.add(reader);
+				else
+					reader.close();
+			} while (!queue.isEmpty() && queue.peek().file.equals(file));
+			return true;
+		}
+
+		// The name as written
+		public Path getFile()
+		{
+			return file;
+		}
+
+		public String getLine()
+		{
+			return line;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			for (RunReader reader : queue)
+				reader.close();
+			queue.clear();
+			for (Path runFile : runFiles)
+				Files.deleteIfExists(runFile);
+		}
+	}
+
+	// Current position in a spilled run
+	private static final class RunReader implements Closeable
+	{
+		private final BufferedReader reader;
+		private final int order;
+		private Path file;
+		private String line;
+
+		RunReader(BufferedReader reader)
+		{
+			this(reader, 0);
+		}
+
+		RunReader(BufferedReader reader, int order)
+		{
+			this.reader = reader;
+			this.order = order;
+		}
+
+		boolean advance() throws IOException
+		{
+			final String record = reader.readLine();
+			if (record == null)
+				return false;
+			final int separatorIndex = record.indexOf(SEPARATOR);
+			file = Paths.get(record.substring(0, separatorIndex));
+			line = record.substring(separatorIndex + 1);
+			return true;
+		}
+
+		Path getFile()
+		{
+			return file;
+		}
+
+		int getOrder()
+		{
+			return order;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adds a digest for every directory to a sorted checksum list, calculated from its children, so two lists can be compared
+ * one subtree at a time.
+ * <br>
+ * A directory's digest is {@code H(child_0 || child_1 || ...)} over its children in name order, where each child is a type byte
+ * ({@code F} or {@code D}), its UTF-8 name, a zero byte, and its checksum. Directories are written in the tagged format as,
+ * for example, {@code MERKLE-SHA-256 (photos/2024/) = ...}, and the root as {@code ./}. Other tools skip them as improperly
+ * formatted lines. Empty directories have no children in the list, so they get no digest.
+ * <br>
+ * The list is in manifest order, so the children of a directory are always next to each other, and a directory's digest
+ * is known before anything at its own depth is written. Only the directories of one depth are held in memory at a time.
+ */
+public final class MerkleTree
+{
+	public static final String PREFIX = "MERKLE-";
+	private static final byte FILE = 'F', DIRECTORY = 'D';
+
+	/**
+	 * Receives lines in order.
+	 */
+	public interface LineSink
+	{
+		void accept(String line) throws IOException;
+	}
+
+	private final MessageDigest digest;
+	private final String algorithm;
+	private final int rootDepth;
+	private final LineSink sink;
+	private final StringBuilder lineBuilder = new StringBuilder();
+	// Finished directories at the current depth, and the ones being built from it at the next depth up
+	private TreeMap<Path, byte[]> pendingDirectories = new TreeMap<>(), nextDirectories = new TreeMap<>();
+	// Directory whose children are being digested, null if none
+	private Path parent;
+	private int depth = -1;
+
+	/**
+	 * @param digest The algorithm of the checksums, cloned.
+	 * @param root The input directory as written in the list, the empty path if the list is relative.
+	 * @param sink Receives every line of the list with the directories added.
+	 */
+	public MerkleTree(MessageDigest digest, Path root, LineSink sink)
+	{
+		this.digest = Main.cloneDigest(digest);
+		this.digest.reset();
+		// Upper case like the other tags, whatever case the algorithm was selected in
+		this.algorithm = PREFIX + digest.getAlgorithm().toUpperCase(Locale.ROOT);
+		this.rootDepth = Main.depth(root);
+		this.sink = sink;
+	}
+
+	/**
+	 * Checks if an algorithm name is for a directory digest.
+	 * @param name The algorithm name, may be null.
+	 * @return True, if it starts with the prefix.
+	 */
+	public static boolean isMerkleAlgorithm(String name)
+	{
+		return name != null && name.regionMatches(true, 0, PREFIX, 0, PREFIX.length());
+	}
+
+	/**
+	 * How a directory is written in a list, with a trailing separator so it can't be mistaken for a file.
+	 * @param directory The directory.
+	 * @return The name to write.
+	 */
+	public static String directoryName(Path directory)
+	{
+		final String name = directory.toString(), separator = directory.getFileSystem().getSeparator();
+		return name.isEmpty() ? '.' + separator : name.endsWith(separator) ? name : name + separator;
+	}
+
+	/**
+	 * Parent of a path in the list, the empty path for names of a relative list without one.
+	 * @param path The path.
+	 * @return The parent.
+	 */
+	public static Path parentOf(Path path)
+	{
+		final Path parent = path.getParent();
+		return parent != null ? parent : path.getFileSystem().getPath("");
+	}
+
+	/**
+	 * Pass on the next line in manifest order, after any directories that sort before it.
+	 * @param line The line.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void add(String line) throws IOException
+	{
+		final ManifestEntry entry = ManifestReader.parse(line, 0);
+		final Path file = entry.getFile();
+		final int fileDepth = Main.depth(file);
+		// Nothing outside the root can be part of the tree
+		if (!entry.isValid() || fileDepth <= rootDepth)
+		{
+			sink.accept(line);
+			return;
+		}
+		if (depth < 0)
+			depth = fileDepth;
+		while (depth > fileDepth)
+			finishDepth();
+		while (!pendingDirectories.isEmpty() && pendingDirectories.firstKey().compareTo(file) < 0)
+			writeDirectory(pendingDirectories.pollFirstEntry());
+		sink.accept(line);
+		addChild(file, false, entry.getHash());
+	}
+
+	/**
+	 * Write every remaining directory, up to and including the root.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void finish() throws IOException
+	{
+		if (depth < 0)
+			return;
+		while (depth > rootDepth)
+			finishDepth();
+		while (!pendingDirectories.isEmpty())
+			writeDirectory(pendingDirectories.pollFirstEntry());
+	}
+
+	// Write the rest of this depth's directories, then move up a level
+	private void finishDepth() throws IOException
+	{
+		while (!pendingDirectories.isEmpty())
+			writeDirectory(pendingDirectories.pollFirstEntry());
+		closeParent();
+		final TreeMap<Path, byte[]> finished = pendingDirectories;
+		pendingDirectories = nextDirectories;
+		nextDirectories = finished;
+		depth--;
+	}
+
+	private void writeDirectory(Map.Entry<Path, byte[]> directory) throws IOException
+	{
+		lineBuilder.setLength(0);
+		lineBuilder.append(algorithm).append(" (").append(directoryName(directory.getKey())).append(") = ");
+		Main.appendHex(lineBuilder, directory.getValue(), 0, directory.getValue().length);
+		sink.accept(lineBuilder.toString());
+		addChild(directory.getKey(), true, directory.getValue());
+	}
+
+	private void addChild(Path child, boolean isDirectory, byte[] hash)
+	{
+		// The root has no parent in the list
+		if (Main.depth(child) <= rootDepth)
+			return;
+		final Path childParent = parentOf(child);
+		if (!childParent.equals(parent))
+		{
+			closeParent();
+			parent = childParent;
+		}
+		digest.update(isDirectory ? DIRECTORY : FILE);
+		digest.update(child.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(hash);
+	}
+
+	// Every child of the current parent has been added
+	private void closeParent()
+	{
+		if (parent != null)
+			nextDirectories.put(parent, digest.digest());
+		parent = null;
+	}
+}
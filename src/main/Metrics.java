@@ -0,0 +1,300 @@
+package main;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters of a run, written as a JSON summary at the end and optionally as a Prometheus text file kept
+ * current while it runs, so throughput can be tracked across runs.
+ * <br>
+ * Every thread only adds to counters. Phases can overlap, the walk runs alongside hashing, and a phase run by several
+ * threads adds up the time of each. Throughput is over the time spent hashing. The latency of each file read is kept
+ * in buckets 4 times wider than the last, starting at a microsecond.
+ */
+public final class Metrics
+{
+	public static final int EXPORT_INTERVAL = 15;// Seconds between rewrites of the Prometheus file
+	public static final int BUCKETS = 14;// Up to about a minute, then the overflow bucket
+	private static final String PREFIX = "pathchecksum_";
+	private static final double SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static volatile Metrics installed = new Metrics();
+
+	/**
+	 * Stages of a run that are timed.
+	 */
+	public enum Phase
+	{
+		WALK, PARSE, HASH, SORT, WRITE
+	}
+
+	private final long start = System.nanoTime();
+	private final LongAdder[] phases = new LongAdder[Phase.values().length];
+	private final LongAdder files = new LongAdder(), bytes = new LongAdder(), cachedFiles = new LongAdder(), latencySum = new LongAdder();
+	private final LongAdder[] latencies = new LongAdder[BUCKETS + 1];
+	// Files and bytes by algorithm name
+	private final Map<String, LongAdder[]> algorithms = new ConcurrentHashMap<>();
+	private ScheduledExecutorService timer;
+	private Path exportPath;
+	private volatile boolean exportFailed;
+
+	public Metrics()
+	{
+		for (int i = 0; i < phases.length; i++)
+			phases[i] = new LongAdder();
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LongAdder();
+	}
+
+	/**
+	 * Use these metrics for the rest of the run.
+	 * @param metrics The metrics.
+	 */
+	public static void install(Metrics metrics)
+	{
+		installed = metrics;
+	}
+
+	// The metrics in use, which are only counted unless others were installed and written
+	public static Metrics get()
+	{
+		return installed;
+	}
+
+	/**
+	 * Add the time since a phase started.
+	 * @param phase The phase.
+	 * @param startNanos When it started, from {@link System#nanoTime()}.
+	 */
+	public void time(Phase phase, long startNanos)
+	{
+		phases[phase.ordinal()].add(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Count a file that was read.
+	 * @param names Algorithms it was hashed with.
+	 * @param size Bytes read.
+	 * @param nanos Time taken to read and hash it.
+	 */
+	public void fileHashed(String[] names, long size, long nanos)
+	{
+		files.increment();
+		bytes.add(size);
+		latencySum.add(nanos);
+		latencies[bucketOf(nanos)].increment();
+		for (String name : names)
+		{
+			final LongAdder[] counters = algorithms.computeIfAbsent(name.toUpperCase(), key -> new LongAdder[] {new LongAdder(), new LongAdder()});
+			counters[0].increment();
+			counters[1].add(size);
+		}
+	}
+
+	// A file wasn't read since its checksum was cached
+	public void fileCached()
+	{
+		cachedFiles.increment();
+	}
+
+	/**
+	 * Keep a Prometheus text file current until stopped, for the textfile collector of the node exporter.
+	 * @param path The file, replaced whole every time so it's never read partly written.
+	 */
+	public synchronized void export(Path path)
+	{
+		timer = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			final Thread thread = new Thread(runnable, "metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleWithFixedDelay(() -> writePrometheus(path), 0, EXPORT_INTERVAL, TimeUnit.SECONDS);
+		exportPath = path;
+	}
+
+	/**
+	 * Stop refreshing the Prometheus file, writing it one last time.
+	 */
+	public synchronized void stop()
+	{
+		if (timer == null)
+			return;
+		// Waits for a write in progress rather than interrupting it
+		timer.shutdown();
+		timer = null;
+		writePrometheus(exportPath);
+	}
+
+	/**
+	 * Write the summary of the run.
+	 * @param path The JSON file.
+	 * @param mode What the run did.
+	 * @param exitCode How the run ended.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void writeSummary(Path path, String mode, int exitCode) throws IOException
+	{
+		final double hashSeconds = hashSeconds();
+		try (final JsonWriter json = new JsonWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8)))
+		{
+			json.beginObject();
+			json.name("mode").value(mode);
+			json.name("exitCode").value(exitCode);
+			json.name("seconds").value(seconds(System.nanoTime() - start));
+			json.name("phases").beginObject();
+			for (Phase phase : Phase.values())
+				json.name(phase.name().toLowerCase()).value(seconds(phases[phase.ordinal()].sum()));
+			json.endObject();
+			json.name("files").value(files.sum());
+			json.name("bytes").value(bytes.sum());
+			json.name("cachedFiles").value(cachedFiles.sum());
+			json.name("filesPerSecond").value(files.sum() / hashSeconds);
+			json.name("bytesPerSecond").value(bytes.sum() / hashSeconds);
+			json.name("fileLatency").beginObject();
+			json.name("count").value(files.sum());
+			json.name("sumSeconds").value(seconds(latencySum.sum()));
+			json.name("buckets").beginArray();
+			long cumulative = 0;
+			for (int i = 0; i < latencies.length; i++)
+			{
+				cumulative += latencies[i].sum();
+				json.beginObject();
+				if (i < BUCKETS)
+					json.name("le").value(bucketBound(i));
+				else
+					json.name("le").value((String) null);// Everything slower
+				json.name("count").value(cumulative);
+				json.endObject();
+			}
+			json.endArray();
+			json.endObject();
+			json.name("algorithms").beginArray();
+			for (Map.Entry<String, LongAdder[]> entry : new TreeMap<>(algorithms).entrySet())
+			{
+				json.beginObject();
+				json.name("name").value(entry.getKey());
+				json.name("files").value(entry.getValue()[0].sum());
+				json.name("bytes").value(entry.getValue()[1].sum());
+				json.endObject();
+			}
+			json.endArray();
+			json.endObject();
+		}
+	}
+
+	// Write to a temporary file next to it and move it over the old one, warning only once if that fails
+	private synchronized void writePrometheus(Path path)
+	{
+		final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try
+		{
+			try (final Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8))
+			{
+				writePrometheus(writer);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e)
+		{
+			if (!exportFailed)
+				System.err.println("Warning! Unable to write metrics to [" + path + "]: " + e);
+			exportFailed = true;
+		}
+	}
+
+	private void writePrometheus(Writer writer) throws IOException
+	{
+		final double hashSeconds = hashSeconds();
+		header(writer, "run_seconds", "gauge", "Time since the run started.");
+		sample(writer, "run_seconds", null, seconds(System.nanoTime() - start));
+		header(writer, "phase_seconds_total", "counter", "Time spent in each phase, added up over the threads running it.");
+		for (Phase phase : Phase.values())
+			sample(writer, "phase_seconds_total", "phase=\"" + phase.name().toLowerCase() + '"', seconds(phases[phase.ordinal()].sum()));
+		header(writer, "files_total", "counter", "Files read and hashed.");
+		sample(writer, "files_total", null, files.sum());
+		header(writer, "bytes_total", "counter", "Bytes read and hashed.");
+		sample(writer, "bytes_total", null, bytes.sum());
+		header(writer, "cached_files_total", "counter", "Files whose cached checksum was used instead.");
+		sample(writer, "cached_files_total", null, cachedFiles.sum());
+		header(writer, "files_per_second", "gauge", "Files hashed per second spent hashing.");
+		sample(writer, "files_per_second", null, files.sum() / hashSeconds);
+		header(writer, "bytes_per_second", "gauge", "Bytes hashed per second spent hashing.");
+		sample(writer, "bytes_per_second", null, bytes.sum() / hashSeconds);
+		header(writer, "file_latency_seconds", "histogram", "Time to read and hash each file.");
+		long cumulative = 0;
+		for (int i = 0; i < latencies.length; i++)
+		{
+			cumulative += latencies[i].sum();
+			sample(writer, "file_latency_seconds_bucket", "le=\"" + (i < BUCKETS ? Double.toString(bucketBound(i)) : "+Inf") + '"', cumulative);
+		}
+		sample(writer, "file_latency_seconds_sum", null, seconds(latencySum.sum()));
+		sample(writer, "file_latency_seconds_count", null, cumulative);
+		final Map<String, LongAdder[]> sorted = new TreeMap<>(algorithms);
+		header(writer, "algorithm_files_total", "counter", "Files hashed with each algorithm.");
+		for (Map.Entry<String, LongAdder[]> entry : sorted.entrySet())
+			sample(writer, "algorithm_files_total", "algorithm=\"" + entry.getKey() + '"', entry.getValue()[0].sum());
+		header(writer, "algorithm_bytes_total", "counter", "Bytes hashed with each algorithm.");
+		for (Map.Entry<String, LongAdder[]> entry : sorted.entrySet())
+			sample(writer, "algorithm_bytes_total", "algorithm=\"" + entry.getKey() + '"', entry.getValue()[1].sum());
+	}
+
+	private static void header(Writer writer, String name, String type, String help) throws IOException
+	{
+		writer.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		writer.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(Writer writer, String name, String labels, double value) throws IOException
+	{
+		writer.append(PREFIX).append(name);
+		if (labels != null)
+			writer.append('{').append(labels).append('}');
+		writer.append(' ').append(Double.isFinite(value) ? Double.toString(value) : "NaN").append('\n');
+	}
+
+	private static void sample(Writer writer, String name, String labels, long value) throws IOException
+	{
+		writer.append(PREFIX).append(name);
+		if (labels != null)
+			writer.append('{').append(labels).append('}');
+		writer.append(' ').append(Long.toString(value)).append('\n');
+	}
+
+	// Time spent hashing, or the whole run so far if no hashing has finished yet
+	private double hashSeconds()
+	{
+		final long hash = phases[Phase.HASH.ordinal()].sum();
+		return seconds(hash > 0 ? hash : System.nanoTime() - start);
+	}
+
+	private static double seconds(long nanos)
+	{
+		return nanos / SECOND;
+	}
+
+	// Upper bound of a bucket in seconds
+	private static double bucketBound(int bucket)
+	{
+		return (1L << bucket * 2) / 1e6;
+	}
+
+	// Smallest bucket whose bound isn't below the time, each bucket is two more bits of microseconds
+	private static int bucketOf(long nanos)
+	{
+		final long micros = (nanos + 999) / 1000;
+		if (micros <= 1)
+			return 0;
+		final int bits = Long.SIZE - Long.numberOfLeadingZeros(micros - 1);
+		return Math.min((bits + 1) / 2, BUCKETS);
+	}
+}
@@ -0,0 +1,142 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Walks a tree with many directory listings and attribute reads in flight at once, for network file systems where each
+ * call waits on the server.
+ * <br>
+ * Directories and entries are handed out as tasks, and a semaphore bounds how many tasks exist at once. An entry found
+ * while every permit is taken is visited by the task listing it instead, so a huge directory doesn't queue a task per
+ * entry. Files are found in no particular order, which doesn't matter since the checksum lists are sorted anyway.
+ */
+public final class ParallelWalk
+{
+	private final ExecutorService executor;
+	// A permit for each task submitted and not done
+	private final Semaphore tasks;
+	private final WalkScheduler paths;
+	private final boolean verbose;
+	// Not a monitor, a virtual thread blocked on the full queue inside one would hold on to its carrier
+	private final ReentrantLock pathsLock = new ReentrantLock();
+	// Tasks submitted but not done, the walk is done when it reaches zero
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	/**
+	 * @param executor Runs the tasks, normally on virtual threads.
+	 * @param inFlight Number of tasks, and so file system calls, at once.
+	 * @param paths Orders the files found before passing them on, blocks if full.
+	 * @param verbose If extra console printing should be enabled.
+	 */
+	public ParallelWalk(ExecutorService executor, int inFlight, WalkScheduler paths, boolean verbose)
+	{
+		this.executor = executor;
+		this.tasks = new Semaphore(inFlight);
+		this.paths = paths;
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Find every file under a directory, like {@link Main} does on a single thread.
+	 * @param start The directory.
+	 * @throws IOException If a directory couldn't be read.
+	 * @throws InterruptedException If interrupted while waiting for the walk.
+	 */
+	public void walk(Path start) throws IOException, InterruptedException
+	{
+		tasks.acquire();
+		submit(() -> list(start));
+		done.await();
+		final Exception e = failure.get();
+		if (e instanceof IOException)
+			throw (IOException) e;
+		if (e instanceof InterruptedException)
+			throw (InterruptedException) e;
+		if (e != null)
+			throw new IOException("Unable to walk: " + start, e);
+	}
+
+	// Run a task holding a permit, which is released once it's done
+	private void submit(Task task)
+	{
+		outstanding.incrementAndGet();
+		executor.execute(() ->
+		{
+			try
+			{
+				// Nothing more is started once something failed
+				if (failure.get() == null)
+					task.run();
+			} catch (Exception e)
+			{
+				failure.compareAndSet(null, e);
+			} finally
+			{
+				tasks.release();
+				if (outstanding.decrementAndGet() == 0)
+					done.countDown();
+			}
+		});
+	}
+
+	private void list(Path directory) throws IOException, InterruptedException
+	{
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+		{
+			for (Path path : stream)
+			{
+				if (failure.get() != null)
+					return;
+				// Never waits for a permit, every task holding one could be listing a directory as well
+				if (tasks.tryAcquire())
+					submit(() -> visit(path));
+				else
+					visit(path);
+			}
+		}
+	}
+
+	private void visit(Path path) throws IOException, InterruptedException
+	{
+		final BasicFileAttributes attributes = Main.readAttributes(path);
+		if (attributes != null && attributes.isDirectory())
+		{
+			if (verbose)
+				System.out.println("Found directory at: " + path.normalize());
+			list(path);
+		} else if (attributes != null && attributes.isRegularFile())
+		{
+			final Path normalizedPath = path.normalize();
+			if (verbose)
+				System.out.println("Found file at: " + normalizedPath);
+			// Only one thread orders the files at a time
+			pathsLock.lockInterruptibly();
+			try
+			{
+				paths.add(normalizedPath, attributes);
+			} finally
+			{
+				pathsLock.unlock();
+			}
+		} else if (verbose)
+			System.err.println("Warning! Path [" + path.normalize() + "] no longer exists! Skipping path...");
+	}
+
+	// A step of the walk
+	private interface Task
+	{
+		void run() throws IOException, InterruptedException;
+	}
+}
@@ -0,0 +1,95 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A set of paths kept as 128 bit fingerprints instead of the paths themselves, so millions of them take a few dozen bytes each.
+ * <br>
+ * A fingerprint is the first half of a SHA-256 of the path, so two paths sharing one is too unlikely to matter. They are kept in
+ * two arrays with open addressing, an all zero fingerprint marks an empty slot.
+ */
+public final class PathFingerprints
+{
+	private static final int INITIAL_CAPACITY = Main.KB;// Must be a power of two
+	private static final int MAX_LOAD_PERCENT = 75;
+
+	private final MessageDigest digest;
+	private long[] highs = new long[INITIAL_CAPACITY], lows = new long[INITIAL_CAPACITY];
+	private int size;
+
+	public PathFingerprints()
+	{
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("Every Java platform has SHA-256!", e);
+		}
+	}
+
+	/**
+	 * @param path The path, normalized the same way it will be looked up.
+	 */
+	public synchronized void add(Path path)
+	{
+		final ByteBuffer fingerprint = fingerprint(path);
+		final long high = fingerprint.getLong(), low = fingerprint.getLong();
+		if (insert(highs, lows, high, low))
+			size++;
+		if (size * 100L > highs.length * (long) MAX_LOAD_PERCENT)
+			grow();
+	}
+
+	public synchronized boolean contains(Path path)
+	{
+		final ByteBuffer fingerprint = fingerprint(path);
+		final long high = fingerprint.getLong(), low = fingerprint.getLong();
+		final int mask = highs.length - 1;
+		for (int slot = (int) low & mask; highs[slot] != 0 || lows[slot] != 0; slot = (slot + 1) & mask)
+			if (highs[slot] == high && lows[slot] == low)
+				return true;
+		return false;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	// Only the first half of the digest, with zero reserved for empty slots
+	private ByteBuffer fingerprint(Path path)
+	{
+		final ByteBuffer fingerprint = ByteBuffer.wrap(digest.digest(path.toString().getBytes(StandardCharsets.UTF_8)), 0, 16);
+		if (fingerprint.getLong(0) == 0 && fingerprint.getLong(8) == 0)
+			fingerprint.put(15, (byte) 1);
+		return fingerprint;
+	}
+
+	// False if it was already there
+	private static boolean insert(long[] highs, long[] lows, long high, long low)
+	{
+		final int mask = highs.length - 1;
+		int slot = (int) low & mask;
+		for (; highs[slot] != 0 || lows[slot] != 0; slot = (slot + 1) & mask)
+			if (highs[slot] == high && lows[slot] == low)
+				return false;
+		highs[slot] = high;
+		lows[slot] = low;
+		return true;
+	}
+
+	private void grow()
+	{
+		final long[] grownHighs = new long[highs.length * 2], grownLows = new long[lows.length * 2];
+		for (int i = 0; i < highs.length; i++)
+			if (highs[i] != 0 || lows[i] != 0)
+				insert(grownHighs, grownLows, highs[i], lows[i]);
+		highs = grownHighs;
+		lows = grownLows;
+	}
+}
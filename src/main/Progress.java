@@ -0,0 +1,96 @@
+package main;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import me.tongfei.progressbar.ProgressBar;
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Progress of a whole run, shown as a single bar with the bytes and files done, the speed, and the time left.
+ * <br>
+ * Workers only add to counters, and the bar is refreshed from them on a timer, so the cost doesn't depend on the number of files
+ * or threads. Totals grow as files are found, so the time left settles once the walk has finished.
+ */
+public final class Progress implements Closeable
+{
+	public static final int REFRESH = 500;// Milliseconds between refreshes of the bar
+
+	private final LongAdder bytes = new LongAdder(), files = new LongAdder(), totalBytes = new LongAdder(), totalFiles = new LongAdder();
+	private final ProgressBar bar;
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * @param task Name shown before the bar.
+	 * @param show If the bar should be shown, otherwise it's only counted.
+	 */
+	public Progress(String task, boolean show)
+	{
+		if (show)
+		{
+			bar = new ProgressBarBuilder().setTaskName(task).setUnit("MB", Main.MB).showSpeed().setInitialMax(0).setUpdateIntervalMillis(REFRESH).build();
+			timer = Executors.newSingleThreadScheduledExecutor(runnable ->
+			{
+				final Thread thread = new Thread(runnable, "progress");
+				thread.setDaemon(true);
+				return thread;
+			});
+			timer.scheduleAtFixedRate(this::refresh, REFRESH, REFRESH, TimeUnit.MILLISECONDS);
+		} else
+		{
+			bar = null;
+			timer = null;
+		}
+	}
+
+	// A file to be read was found
+	public void found(long size)
+	{
+		totalFiles.increment();
+		totalBytes.add(size);
+	}
+
+	// Bytes were read, or skipped since the checksum was already known
+	public void read(long count)
+	{
+		bytes.add(count);
+	}
+
+	// A file is done
+	public void finished()
+	{
+		files.increment();
+	}
+
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+
+	public long getFiles()
+	{
+		return files.sum();
+	}
+
+	@Override
+	public void close()
+	{
+		if (timer == null)
+			return;
+		timer.shutdownNow();
+		refresh();
+		bar.close();
+	}
+
+	private void refresh()
+	{
+		final long done = bytes.sum();
+		// Files can grow while they are read
+		bar.maxHint(Math.max(done, totalBytes.sum()));
+		bar.stepTo(done);
+		bar.setExtraMessage(files.sum() + "/" + totalFiles.sum() + " files");
+	}
+}
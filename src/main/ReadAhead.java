@@ -0,0 +1,158 @@
+package main;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads a file on another thread a buffer ahead of the digests, so the disk and the CPU work at the same time instead
+ * of taking turns.
+ * <br>
+ * The reader and the digesting thread pass {@link #DEPTH} buffers back and forth. They come from a pool shared by every
+ * file, so only as many are allocated as there are files being read ahead at once.
+ */
+public final class ReadAhead
+{
+	public static final int DEPTH = 2;// One being read while the other is digested
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+	private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+	private static final ExecutorService READERS = Executors.newCachedThreadPool(runnable ->
+	{
+		final Thread thread = new Thread(runnable, "read-ahead");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ReadAhead()
+	{}
+
+	/**
+	 * Read the whole channel into the digests, reading the next buffer while the last is digested.
+	 * @param channel The file to read, only read by the reader thread until this returns.
+	 * @param digests The digests to update.
+	 * @param progress Counts the bytes read, may be null.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public static void readIntoDigest(FileChannel channel, MessageDigest[] digests, Progress progress) throws IOException
+	{
+		final ByteBuffer[] buffers = new ByteBuffer[DEPTH];
+		final BlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<>(DEPTH);
+		// Room for the end as well, so the reader never waits to add it
+		final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(DEPTH + 1);
+		for (int i = 0; i < DEPTH; i++)
+		{
+			final ByteBuffer pooled = POOL.poll();
+			buffers[i] = pooled != null ? pooled : ByteBuffer.allocateDirect(Main.BUFFER);
+			buffers[i].clear();
+			empty.add(buffers[i]);
+		}
+		final AtomicReference<IOException> failure = new AtomicReference<>();
+		final CountDownLatch finished = new CountDownLatch(1);
+		final Future<?> reader = READERS.submit(() ->
+		{
+			try
+			{
+				read(channel, empty, full);
+			} catch (IOException e)
+			{
+				failure.set(e);
+			} catch (InterruptedException e)
+			{
+				// Stopped by the digesting thread
+			} finally
+			{
+				full.add(END);
+				finished.countDown();
+			}
+		});
+		final IOLimiter limiter = IOLimiter.get();
+		try
+		{
+			ByteBuffer buffer;
+			while ((buffer = full.take()) != END)
+			{
+				final int read = buffer.remaining();
+				limiter.startDigest();
+				try
+				{
+					Main.updateAll(digests, buffer);
+				} finally
+				{
+					limiter.endDigest();
+				}
+				buffer.clear();
+				empty.add(buffer);
+				if (progress != null)
+					progress.read(read);
+			}
+			if (failure.get() != null)
+				throw failure.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading ahead!");
+		} finally
+		{
+			// The reader may still be filling a buffer, it has to stop before they are used again
+			reader.cancel(true);
+			awaitReader(finished);
+			for (ByteBuffer used : buffers)
+				POOL.add(used);
+		}
+	}
+
+	// Fill each empty buffer until the end of the file
+	private static void read(FileChannel channel, BlockingQueue<ByteBuffer> empty, BlockingQueue<ByteBuffer> full) throws IOException, InterruptedException
+	{
+		final IOLimiter limiter = IOLimiter.get();
+		boolean end = false;
+		while (!end)
+		{
+			final ByteBuffer buffer = empty.take();
+			// Whole buffers so each digest step is as big as possible, the read count handles short reads
+			while (buffer.hasRemaining())
+			{
+				final int read = channel.read(buffer);
+				if (read < 0)
+				{
+					end = true;
+					break;
+				}
+				limiter.throttle(read);
+			}
+			buffer.flip();
+			if (buffer.hasRemaining())
+				full.put(buffer);
+		}
+	}
+
+	// Wait for the reader even if interrupted, keeping the interrupt for the caller
+	private static void awaitReader(CountDownLatch finished)
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				finished.await();
+				break;
+			} catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
@@ -0,0 +1,16 @@
+package main;
+
+/**
+ * Order found files are hashed in, the checksum list is sorted the same way no matter which is used.
+ */
+public enum Schedule
+{
+	/** As they are found, which is the order the file system lists them in. */
+	WALK,
+	/** By path, so the files of each directory are read together. */
+	DIRECTORY,
+	/** By inode number, which roughly follows where files are on disk for most Unix file systems. */
+	INODE,
+	/** Largest first, so a big file found late doesn't keep one thread busy after the others finish. */
+	SIZE;
+}
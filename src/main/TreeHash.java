@@ -0,0 +1,179 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Two level hash tree over fixed-size chunks of a single file, so one big file can be hashed by several threads.
+ * <br>
+ * Every chunk is hashed as {@code H(0x00 || chunk)} and the root is {@code H(0x01 || leaf_0 || leaf_1 || ...)}.
+ * The algorithm name records the chunk size, like {@code TREE64M-SHA-256}, so checking doesn't need any extra options.
+ */
+public final class TreeHash
+{
+	public static final String PREFIX = "TREE";
+	private static final byte LEAF = 0, NODE = 1;
+
+	private final MessageDigest digest;
+	private final int chunkSize;
+
+	/**
+	 * @param digest The digest to use for both chunks and the root, will be cloned for each worker.
+	 * @param chunkSize Size of each chunk in bytes.
+	 */
+	public TreeHash(MessageDigest digest, int chunkSize)
+	{
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("The field [chunkSize] must be positive!");
+		this.digest = digest;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Parse a tree algorithm name.
+	 * @param name The name, like {@code TREE64M-SHA-256}.
+	 * @return The matching tree hash, or null if the name is not a tree algorithm.
+	 * @throws NoSuchAlgorithmException If the name is a tree algorithm, but the digest algorithm doesn't exist.
+	 */
+	public static TreeHash forName(String name) throws NoSuchAlgorithmException
+	{
+		if (!isTreeAlgorithm(name))
+			return null;
+		final int unitIndex = name.indexOf("M-", PREFIX.length());
+		if (unitIndex <= PREFIX.length())
+			return null;
+		try
+		{
+			final int chunkMB = Integer.parseInt(name.substring(PREFIX.length(), unitIndex));
+			if (chunkMB <= 0 || chunkMB > Integer.MAX_VALUE / Main.MB)
+				return null;
+			return new TreeHash(MessageDigest.getInstance(name.substring(unitIndex + 2)), chunkMB * Main.MB);
+		} catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if an algorithm name is for a tree hash.
+	 * @param name The algorithm name.
+	 * @return True, if it starts with the tree prefix and a digit.
+	 */
+	public static boolean isTreeAlgorithm(String name)
+	{
+		return name.length() > PREFIX.length() && name.regionMatches(true, 0, PREFIX, 0, PREFIX.length()) && Character.isDigit(name.charAt(PREFIX.length()));
+	}
+
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	public String getAlgorithm()
+	{
+		return PREFIX + chunkSize / Main.MB + "M-" + digest.getAlgorithm().toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Calculate the root hash of a file.
+	 * @param path The file to read.
+	 * @param io How the chunks should be read.
+	 * @param threads Number of chunks to hash at once.
+	 * @param progress Counts the bytes read, may be null.
+	 * @return The root hash in raw bytes.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public byte[] hash(Path path, IOStrategy io, int threads, Progress progress) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+			final boolean map = io.resolve(size) == IOStrategy.MMAP;
+			final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> Main.cloneDigest(digest));
+			final List<Callable<byte[]>> tasks = new ArrayList<>((int) Math.min(Integer.MAX_VALUE, size / chunkSize + 1));
+			final long hashStart = System.nanoTime();
+			for (long position = 0; position < size; position += chunkSize)
+			{
+				final long start = position, length = Math.min(chunkSize, size - position);
+				tasks.add(() ->
+				{
+					// Chunks are read like separate files, so a spinning disk isn't asked to seek between all of them at once
+					final IOLimiter.Permit permit = IOLimiter.get().acquire(path);
+					try
+					{
+						return hashChunk(channel, start, length, map, digests.get(), progress);
+					} finally
+					{
+						permit.close();
+					}
+				});
+			}
+			final List<byte[]> leaves = Main.invokeAll(tasks, threads);
+			// Combine in order
+			final MessageDigest root = Main.cloneDigest(digest);
+			root.reset();
+			root.update(NODE);
+			for (byte[] leaf : leaves)
+				root.update(leaf);
+			final byte[] hash = root.digest();
+			Metrics.get().fileHashed(new String[] {getAlgorithm()}, size, System.nanoTime() - hashStart);
+			return hash;
+		}
+	}
+
+	/**
+	 * Hash a single chunk, using positional reads so the channel can be shared.
+	 * @param channel The file to read.
+	 * @param start Position of the chunk.
+	 * @param length Size of the chunk.
+	 * @param map If the chunk should be memory-mapped instead of read.
+	 * @param digest This thread's digest.
+	 * @param progress Counts the bytes read, may be null.
+	 * @return The leaf hash.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private static byte[] hashChunk(FileChannel channel, long start, long length, boolean map, MessageDigest digest, Progress progress) throws IOException
+	{
+		digest.reset();
+		digest.update(LEAF);
+		if (map)
+		{
+			final MappedByteBuffer chunk = channel.map(MapMode.READ_ONLY, start, length);
+			IOLimiter.get().throttle(length);
+			digest.update(chunk);
+			if (progress != null)
+				progress.read(length);
+		} else
+		{
+			final ByteBuffer buffer = Main.BUFFERS.get();
+			final long end = start + length;
+			long position = start;
+			while (position < end)
+			{
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				final int read = channel.read(buffer, position);
+				if (read < 0)
+					throw new IOException("File shrunk while hashing, expected " + end + " bytes but ended at " + position);
+				IOLimiter.get().throttle(read);
+				buffer.flip();
+				digest.update(buffer);
+				position += read;
+				if (progress != null)
+					progress.read(read);
+			}
+		}
+		return digest.digest();
+	}
+}
@@ -0,0 +1,62 @@
+package main;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for work that mostly waits on the file system, on virtual threads where the runtime has them.
+ * <br>
+ * Virtual threads are found by reflection, so this still runs on older runtimes, which get a fixed pool of platform
+ * threads instead. Either way the caller bounds how much is in flight at once.
+ */
+public final class VirtualThreads
+{
+	private static final Method NEW_EXECUTOR = find();
+
+	private VirtualThreads()
+	{}
+
+	// If tasks will run on virtual threads
+	public static boolean isAvailable()
+	{
+		return NEW_EXECUTOR != null;
+	}
+
+	/**
+	 * Create an executor running each task on its own virtual thread.
+	 * @param name Name of the platform threads used instead on older runtimes.
+	 * @param fallbackThreads Number of platform threads used instead on older runtimes.
+	 * @return The executor, to be shut down once done.
+	 */
+	public static ExecutorService newExecutor(String name, int fallbackThreads)
+	{
+		if (NEW_EXECUTOR != null)
+		{
+			try
+			{
+				return (ExecutorService) NEW_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException e)
+			{
+				// Fall through to platform threads
+			}
+		}
+		return Executors.newFixedThreadPool(fallbackThreads, runnable ->
+		{
+			final Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static Method find()
+	{
+		try
+		{
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reorders found files before they are hashed according to a {@link Schedule}, leaving out any already hashed by an interrupted run.
+ * <br>
+ * Files are sorted a window of {@link #WINDOW} at a time, so hashing starts long before the walk of a huge tree finishes,
+ * and memory use doesn't depend on the size of the tree.
+ */
+public final class WalkScheduler
+{
+	public static final int WINDOW = Main.KB * 64;// Files sorted at once
+
+	private static final Comparator<Item> BY_PATH = Comparator.comparing(item -> item.file), BY_KEY = Comparator.comparingLong(item -> item.key);
+
+	private final Schedule schedule;
+	private final BlockingQueue<Path> queue;
+	private final PathFingerprints skip;
+	private final Progress progress;
+	private final List<Item> window = new ArrayList<>();
+	private boolean noInodes;
+
+	/**
+	 * @param schedule The order to hash files in.
+	 * @param queue Receives the files in that order.
+	 * @param skip Files to leave out as normalized absolute paths, may be null.
+	 * @param progress Counts the files passed on, may be null.
+	 */
+	public WalkScheduler(Schedule schedule, BlockingQueue<Path> queue, PathFingerprints skip, Progress progress)
+	{
+		this.schedule = schedule;
+		this.queue = queue;
+		this.skip = skip;
+		this.progress = progress;
+	}
+
+	/**
+	 * Add a found file, passed on once its window is full.
+	 * @param file The file.
+	 * @param attributes The file's attributes, read while walking.
+	 * @throws InterruptedException If interrupted while waiting for room in the queue.
+	 */
+	public void add(Path file, BasicFileAttributes attributes) throws InterruptedException
+	{
+		if (skip != null && skip.contains(file.toAbsolutePath().normalize()))
+			return;
+		if (progress != null)
+			progress.found(attributes.size());
+		if (schedule == Schedule.WALK)
+		{
+			queue.put(file);
+			return;
+		}
+		window.add(new Item(file, schedule == Schedule.SIZE ? attributes.size() : schedule == Schedule.INODE ? inodeOf(file) : 0));
+		if (window.size() >= WINDOW)
+			flush();
+	}
+
+	/**
+	 * Pass on every file still waiting, the walk is finished.
+	 * @throws InterruptedException If interrupted while waiting for room in the queue.
+	 */
+	public void finish() throws InterruptedException
+	{
+		flush();
+	}
+
+	private void flush() throws InterruptedException
+	{
+		switch (schedule)
+		{
+			case SIZE: window.sort(BY_KEY.reversed()); break;
+			case INODE: window.sort(noInodes ? BY_PATH : BY_KEY); break;
+			default: window.sort(BY_PATH);
+		}
+		for (Item item : window)
+			queue.put(item.file);
+		window.clear();
+	}
+
+	// Inode number, or 0 if the file system doesn't have them, after which files are ordered by path instead
+	private long inodeOf(Path file)
+	{
+		if (noInodes)
+			return 0;
+		try
+		{
+			return ((Number) Files.getAttribute(file, "unix:ino")).longValue();
+		} catch (UnsupportedOperationException | IllegalArgumentException e)
+		{
+			System.err.println("Warning! Unable to read inode numbers, hashing files in path order instead: " + e);
+			noInodes = true;
+			return 0;
+		} catch (IOException e)
+		{
+			// Gone since it was found, reading it will report the problem
+			return 0;
+		}
+	}
+
+	private static final class Item
+	{
+		private final Path file;
+		private final long key;
+
+		Item(Path file, long key)
+		{
+			this.file = file;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,561 @@
+package main;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the checksums of every file in a directory in memory, and only hashes files again when they change.
+ * <br>
+ * Changes are found through a {@link WatchService} on every directory. A changed file is hashed once it has had no new events
+ * for the debounce time, so a file being written is only hashed when it's done. If the service drops events, the whole tree is
+ * walked again and only files whose size or modification time changed are hashed. The checksum lists are rewritten when
+ * anything changed, at most once per flush interval, and replaced whole so they are never read partly written.
+ * <br>
+ * Commands are read a line at a time: {@code verify} hashes every indexed file again and reports the ones that no longer match
+ * without any change being seen, {@code verify <path>} does the same for one file, {@code flush} writes the lists now,
+ * {@code status} prints counts, and {@code quit} writes the lists and stops. The lists are also written when the process is
+ * terminated.
+ */
+public final class Watcher implements Closeable
+{
+	public static final long POLL = 250;// Milliseconds to wait for events before checking for commands and due files
+	private static final long SHUTDOWN_WAIT = 30;// Seconds to wait for the last flush when terminated
+
+	private final Path root;
+	private final Path[] outputs;
+	private final boolean absolutePaths, binary, merkle, verbose;
+	private final MessageDigest[] digests;
+	private final IOStrategy io;
+	private final ChecksumCache cache;
+	private final int threads;
+	private final WatchService service;
+	private final ThreadLocal<MessageDigest[]> workerDigests;
+	// Checksums by normalized absolute path
+	private final Map<Path, Indexed> index = new ConcurrentHashMap<>();
+	// Changed files and when they are due to be hashed
+	private final Map<Path, Long> pending = new HashMap<>();
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final Set<Path> directories = new HashSet<>();
+	private final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private final AtomicInteger count = new AtomicInteger();
+	private volatile boolean running = true, dirty;
+	private boolean watchLimitReached;
+	private long rehashed;
+
+	/**
+	 * @param inputPath The directory to watch.
+	 * @param outputs The checksum lists to keep current, one for each algorithm.
+	 * @param absolutePaths If the file names should be absolute.
+	 * @param binary If the lists should be in the binary format.
+	 * @param merkle If a digest of every directory should be added.
+	 * @param digests Digest algorithm instances to use, cloned for each thread.
+	 * @param io How files should be read.
+	 * @param cache Cache of checksums from previous runs, saved with the lists, may be null.
+	 * @param threads Number of files to hash at once.
+	 * @param verbose If extra console printing should be enabled.
+	 * @throws IOException If the watch service couldn't be created.
+	 */
+	public Watcher(Path inputPath, Path[] outputs, boolean absolutePaths, boolean binary, boolean merkle, MessageDigest[] digests, IOStrategy io, ChecksumCache cache, int threads, boolean verbose) throws IOException
+	{
+		// Absolute throughout, so paths given to commands can be looked up however they are written
+		this.root = inputPath.toAbsolutePath().normalize();
+		this.outputs = outputs;
+		this.absolutePaths = absolutePaths;
+		this.binary = binary;
+		this.merkle = merkle;
+		this.digests = digests;
+		this.io = io;
+		this.cache = cache;
+		this.threads = threads;
+		this.verbose = verbose;
+		this.service = root.getFileSystem().newWatchService();
+		this.workerDigests = ThreadLocal.withInitial(() -> Main.cloneDigests(digests));
+	}
+
+	/**
+	 * Start watching every directory and hash every file.
+	 * @param progress Counts the files found and hashed.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void scan(Progress progress) throws IOException
+	{
+		final List<Path> files = new ArrayList<>();
+		walk(root, files, progress);
+		hashAll(files, false, progress);
+		System.out.println("Watching " + directories.size() + " directories with " + index.size() + " files.");
+	}
+
+	/**
+	 * Follow changes and answer commands until told to quit or the process is terminated, then write the lists a last time.
+	 * @param input Where commands are read from, a line at a time.
+	 * @param debounceMillis Time without events before a changed file is hashed.
+	 * @param flushMillis Least time between writes of the lists.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void run(InputStream input, long debounceMillis, long flushMillis) throws IOException
+	{
+		final Thread reader = new Thread(() -> readCommands(input), "commands");
+		reader.setDaemon(true);
+		reader.start();
+		final Thread hook = new Thread(this::shutdown, "shutdown");
+		Runtime.getRuntime().addShutdownHook(hook);
+		try
+		{
+			long lastFlush = System.currentTimeMillis();
+			while (running)
+			{
+				WatchKey key = service.poll(POLL, TimeUnit.MILLISECONDS);
+				// Take everything that is ready, so one debounce covers a whole burst
+				while (key != null)
+				{
+					handleEvents(key, debounceMillis);
+					key = service.poll();
+				}
+				hashDue();
+				String command;
+				while ((command = commands.poll()) != null)
+					handleCommand(command.trim());
+				final long now = System.currentTimeMillis();
+				if (dirty && now - lastFlush >= flushMillis)
+				{
+					flush();
+					lastFlush = now;
+				}
+			}
+			if (dirty)
+				flush();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while watching for changes!");
+		} finally
+		{
+			stopped.countDown();
+			try
+			{
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch (IllegalStateException e)
+			{
+				// Already terminating, the hook is waiting for this
+			}
+		}
+	}
+
+	/**
+	 * Write every checksum list from the index.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	public void flush() throws IOException
+	{
+		dirty = false;
+		final List<FileChecksum> checksums = new ArrayList<>(index.size());
+		for (Indexed indexed : index.values())
+			checksums.add(indexed.checksum);
+		for (int i = 0; i < outputs.length; i++)
+		{
+			// Written next to it and moved over, the old list stays valid until the new one is complete
+			final Path temporary = outputs[i].resolveSibling(outputs[i].getFileName() + ".tmp");
+			try (final ManifestWriter writer = new ManifestWriter(temporary, i, root, absolutePaths, digests[i], binary, merkle, false))
+			{
+				for (FileChecksum checksum : checksums)
+					writer.add(checksum);
+				writer.finish(null);
+			}
+			Files.move(temporary, outputs[i], StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		if (cache != null)
+			cache.save(root);
+		if (verbose)
+			System.out.println("Wrote " + checksums.size() + " checksums.");
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		service.close();
+	}
+
+	// Called on termination, lets the loop finish and write the lists
+	private void shutdown()
+	{
+		running = false;
+		try
+		{
+			stopped.await(SHUTDOWN_WAIT, TimeUnit.SECONDS);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void readCommands(InputStream input)
+	{
+		try (final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+				commands.add(line);
+		} catch (IOException e)
+		{
+			System.err.println("Warning! Unable to read commands, only watching from now on: " + e);
+		}
+	}
+
+	private void handleCommand(String command) throws IOException
+	{
+		final int space = command.indexOf(' ');
+		final String name = space < 0 ? command : command.substring(0, space), argument = space < 0 ? "" : command.substring(space + 1).trim();
+		switch (name.toLowerCase())
+		{
+			case "":
+				break;
+			case "verify":
+				if (argument.isEmpty())
+					verifyAll();
+				else
+				{
+					final Path file = Paths.get(argument).toAbsolutePath().normalize();
+					System.out.println(file + " " + verify(file));
+				}
+				break;
+			case "flush":
+				flush();
+				System.out.println("Wrote " + index.size() + " checksums.");
+				break;
+			case "status":
+				System.out.println("Watching " + directories.size() + " directories with " + index.size() + " files, " + pending.size() + " changed files waiting, "
+						+ rehashed + " hashed again since starting.");
+				break;
+			case "quit":
+			case "exit":
+				running = false;
+				break;
+			default:
+				System.out.println("Unknown command: " + name + ", expected verify [path], flush, status, or quit.");
+		}
+	}
+
+	// Hash every indexed file again and report any that changed without an event
+	private void verifyAll() throws IOException
+	{
+		final List<Path> files = new ArrayList<>(index.keySet());
+		files.sort(Main.MANIFEST_ORDER);
+		final List<Callable<String>> tasks = new ArrayList<>(files.size());
+		for (Path file : files)
+			tasks.add(() -> verify(file));
+		final List<String> results = Main.invokeAll(tasks, threads);
+		int failed = 0, other = 0;
+		for (int i = 0; i < files.size(); i++)
+		{
+			final String result = results.get(i);
+			if (result.equals("OK"))
+				continue;
+			System.out.println(files.get(i) + " " + result);
+			if (result.equals("FAILED"))
+				failed++;
+			else
+				other++;
+		}
+		System.out.println("Verified " + files.size() + " files, " + failed + " failed" + (other > 0 ? " and " + other + " are changing or missing." : "."));
+	}
+
+	/**
+	 * Hash an indexed file again without the cache and compare it with the index.
+	 * @param file The normalized absolute path.
+	 * @return OK, FAILED, MISSING, PENDING if a change is waiting to be hashed, or NOT INDEXED.
+	 * @throws IOException If any I/O exception occurs.
+	 */
+	private String verify(Path file) throws IOException
+	{
+		final Indexed indexed = index.get(file);
+		if (indexed == null)
+			return "NOT INDEXED";
+		synchronized (pending)
+		{
+			if (pending.containsKey(file))
+				return "PENDING";
+		}
+		final byte[][] hashes;
+		try
+		{
+			hashes = Main.getFileChecksums(file, workerDigests.get(), io, null);
+		} catch (NoSuchFileException e)
+		{
+			return "MISSING";
+		}
+		for (int i = 0; i < hashes.length; i++)
+			if (!MessageDigest.isEqual(hashes[i], indexed.checksum.getBytes(i)))
+				return "FAILED";
+		return "OK";
+	}
+
+	private void handleEvents(WatchKey key, long debounceMillis) throws IOException
+	{
+		final Path directory = keys.get(key);
+		if (directory == null)
+			return;// Cancelled since its directory was removed, with events still queued
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == OVERFLOW)
+			{
+				overflow = true;
+				continue;
+			}
+			final Path path = directory.resolve((Path) event.context()).normalize();
+			if (event.kind() == ENTRY_DELETE)
+				removed(path);
+			else
+				changed(path, event.kind() == ENTRY_CREATE, debounceMillis);
+		}
+		if (!key.reset())
+		{
+			keys.remove(key);
+			directories.remove(directory);
+		}
+		if (overflow)
+			rescan();
+	}
+
+	private void changed(Path path, boolean created, long debounceMillis)
+	{
+		final BasicFileAttributes attributes = Main.readAttributes(path);
+		if (attributes == null)
+			return;// Deleted again, its own event follows
+		if (attributes.isDirectory())
+		{
+			// Created or moved in with files already in it
+			if (created && !directories.contains(path))
+			{
+				final List<Path> files = new ArrayList<>();
+				walk(path, files, null);
+				for (Path file : files)
+					due(file, debounceMillis);
+			}
+		} else if (attributes.isRegularFile())
+			due(path, debounceMillis);
+	}
+
+	private void due(Path file, long debounceMillis)
+	{
+		synchronized (pending)
+		{
+			pending.put(file, System.currentTimeMillis() + debounceMillis);
+		}
+	}
+
+	// A file or a whole directory is gone
+	private void removed(Path path)
+	{
+		// Its watches go with it, so a directory created at the same path later is walked again
+		if (directories.removeIf(directory -> directory.startsWith(path)))
+		{
+			for (Iterator<Map.Entry<WatchKey, Path>> iterator = keys.entrySet().iterator(); iterator.hasNext();)
+			{
+				final Map.Entry<WatchKey, Path> entry = iterator.next();
+				if (entry.getValue().startsWith(path))
+				{
+					entry.getKey().cancel();
+					iterator.remove();
+				}
+			}
+		}
+		synchronized (pending)
+		{
+			pending.keySet().removeIf(file -> file.startsWith(path));
+		}
+		if (index.remove(path) == null && !index.keySet().removeIf(file -> file.startsWith(path)))
+			return;
+		dirty = true;
+		if (verbose)
+			System.out.println("Removed: " + path);
+	}
+
+	// Hash the files that have been quiet for long enough
+	private void hashDue() throws IOException
+	{
+		final List<Path> due = new ArrayList<>();
+		final long now = System.currentTimeMillis();
+		synchronized (pending)
+		{
+			for (Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator(); iterator.hasNext();)
+			{
+				final Map.Entry<Path, Long> entry = iterator.next();
+				if (entry.getValue() <= now)
+				{
+					due.add(entry.getKey());
+					iterator.remove();
+				}
+			}
+		}
+		if (!due.isEmpty())
+			rehashed += hashAll(due, false, null);
+	}
+
+	// Events were dropped, walk everything again and only hash what looks changed
+	private void rescan() throws IOException
+	{
+		System.err.println("Warning! Too many changes at once, walking the whole tree again...");
+		// Everything changed so far is found by the walk, later changes still have their events
+		synchronized (pending)
+		{
+			pending.clear();
+		}
+		final List<Path> files = new ArrayList<>();
+		walk(root, files, null);
+		final Set<Path> found = new HashSet<>(files);
+		if (index.keySet().removeIf(file -> !found.contains(file)))
+			dirty = true;
+		rehashed += hashAll(files, true, null);
+	}
+
+	/**
+	 * Watch a directory and everything in it, and collect its files.
+	 * @param directory The directory.
+	 * @param files Receives the files as normalized absolute paths.
+	 * @param progress Counts the files found, may be null.
+	 */
+	private void walk(Path directory, List<Path> files, Progress progress)
+	{
+		if (directories.add(directory))
+		{
+			try
+			{
+				// A directory moved here before its old path's delete was handled keeps its key, which now has this name
+				keys.put(directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+			} catch (IOException e)
+			{
+				// Most likely the limit on watches, changes in it will only be seen by verifying
+				if (!watchLimitReached)
+					System.err.println("Warning! Unable to watch [" + directory + "], changes in it won't be seen: " + e);
+				watchLimitReached = true;
+			}
+		}
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+		{
+			for (Path path : stream)
+			{
+				final BasicFileAttributes attributes = Main.readAttributes(path);
+				if (attributes != null && attributes.isDirectory())
+					walk(path.normalize(), files, progress);
+				else if (attributes != null && attributes.isRegularFile())
+				{
+					files.add(path.normalize());
+					if (progress != null)
+						progress.found(attributes.size());
+				}
+			}
+		} catch (IOException e)
+		{
+			System.err.println("Warning! Unable to read [" + directory + "], skipping path: " + e);
+		}
+	}
+
+	/**
+	 * Hash files on every thread and update the index, dropping any that are gone by now.
+	 * @param files The files.
+	 * @param onlyChanged If files whose size and modification time match the index should be skipped.
+	 * @param progress Counts the bytes read, may be null.
+	 * @return Number of files hashed.
+	 * @throws IOException If interrupted.
+	 */
+	private int hashAll(Collection<Path> files, boolean onlyChanged, Progress progress) throws IOException
+	{
+		final List<Callable<Boolean>> tasks = new ArrayList<>(files.size());
+		for (Path file : files)
+			tasks.add(() -> hash(file, onlyChanged, progress));
+		int hashed = 0;
+		for (boolean changed : Main.invokeAll(tasks, threads))
+			if (changed)
+				hashed++;
+		if (verbose && hashed > 0)
+			System.out.println("Hashed " + hashed + " changed files.");
+		return hashed;
+	}
+
+	private boolean hash(Path file, boolean onlyChanged, Progress progress) throws IOException
+	{
+		final BasicFileAttributes attributes = Main.readAttributes(file);
+		if (attributes == null || !attributes.isRegularFile())
+		{
+			if (index.remove(file) != null)
+				dirty = true;
+			return false;
+		}
+		final long size = attributes.size(), modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+		final Indexed old = index.get(file);
+		if (onlyChanged && old != null && old.size == size && old.modified == modified)
+			return false;
+		final FileChecksum checksum;
+		try
+		{
+			checksum = Main.calculateChecksum(file, count.incrementAndGet(), workerDigests.get(), io, cache, progress, verbose);
+		} catch (NoSuchFileException e)
+		{
+			if (index.remove(file) != null)
+				dirty = true;
+			return false;
+		} catch (InterruptedIOException e)
+		{
+			throw e;
+		} catch (IOException e)
+		{
+			System.err.println("Warning! Unable to hash [" + file + "], keeping its last checksum: " + e);
+			return false;
+		}
+		index.put(file, new Indexed(checksum, size, modified));
+		dirty = true;
+		return true;
+	}
+
+	// A checksum with the metadata it was calculated from
+	private static final class Indexed
+	{
+		private final FileChecksum checksum;
+		private final long size, modified;
+
+		Indexed(FileChecksum checksum, long size, long modified)
+		{
+			this.checksum = checksum;
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+}
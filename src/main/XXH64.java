@@ -0,0 +1,157 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigestSpi;
+
+/**
+ * Pure Java XXH64 with a seed of 0, output in the canonical big-endian form printed by {@code xxhsum}.
+ * <br>
+ * Runs at close to memory bandwidth, but is not cryptographic.
+ */
+public final class XXH64 extends MessageDigestSpi implements Cloneable
+{
+	public static final String ALGORITHM = "XXH64";
+	private static final int LENGTH = 8, STRIPE = 32;
+	private static final long PRIME1 = 0x9E3779B185EBCA87L, PRIME2 = 0xC2B2AE3D27D4EB4FL, PRIME3 = 0x165667B19E3779F9L,
+			PRIME4 = 0x85EBCA77C2B2AE63L, PRIME5 = 0x27D4EB2F165667C5L;
+
+	private long v1, v2, v3, v4, total;
+	// Input not yet making up a whole stripe
+	private ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+	public XXH64()
+	{
+		engineReset();
+	}
+
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return LENGTH;
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		v1 = PRIME1 + PRIME2;
+		v2 = PRIME2;
+		v3 = 0;
+		v4 = -PRIME1;
+		total = 0;
+		pending.clear();
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		pending.put(input);
+		total++;
+		if (!pending.hasRemaining())
+			consumePending();
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length)
+	{
+		engineUpdate(ByteBuffer.wrap(input, offset, length));
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		total += input.remaining();
+		// Complete any partial stripe first
+		if (pending.position() > 0)
+		{
+			while (pending.hasRemaining() && input.hasRemaining())
+				pending.put(input.get());
+			if (pending.hasRemaining())
+				return;
+			consumePending();
+		}
+		// Whole stripes straight from the input, works the same for heap, direct and mapped buffers
+		final ByteOrder order = input.order();
+		input.order(ByteOrder.LITTLE_ENDIAN);
+		while (input.remaining() >= STRIPE)
+		{
+			v1 = round(v1, input.getLong());
+			v2 = round(v2, input.getLong());
+			v3 = round(v3, input.getLong());
+			v4 = round(v4, input.getLong());
+		}
+		input.order(order);
+		pending.put(input);
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		long hash;
+		if (total >= STRIPE)
+		{
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else
+			hash = PRIME5;
+		hash += total;
+		// Remaining input, less than a stripe
+		pending.flip();
+		while (pending.remaining() >= Long.BYTES)
+		{
+			hash ^= round(0, pending.getLong());
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (pending.remaining() >= Integer.BYTES)
+		{
+			hash ^= (pending.getInt() & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+		}
+		while (pending.hasRemaining())
+		{
+			hash ^= (pending.get() & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+		// Avalanche
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		engineReset();
+		return ByteBuffer.allocate(LENGTH).putLong(hash).array();
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		final XXH64 clone = (XXH64) super.clone();
+		clone.pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+		clone.pending.put(pending.duplicate().flip());
+		return clone;
+	}
+
+	// Process a whole buffered stripe
+	private void consumePending()
+	{
+		pending.flip();
+		v1 = round(v1, pending.getLong());
+		v2 = round(v2, pending.getLong());
+		v3 = round(v3, pending.getLong());
+		v4 = round(v4, pending.getLong());
+		pending.clear();
+	}
+
+	private static long round(long accumulator, long lane)
+	{
+		return Long.rotateLeft(accumulator + lane * PRIME2, 31) * PRIME1;
+	}
+
+	private static long mergeRound(long hash, long accumulator)
+	{
+		return (hash ^ round(0, accumulator)) * PRIME1 + PRIME4;
+	}
+}